@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import au.com.shawware.finska.entity.Player;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Benchmarks the data controller's end points.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings({ "nls", "static-method" })
+public class DataControllerBenchmark
+{
+    /**
+     * Benchmarks retrieving the players, before encoding.
+     *
+     * @param state the shared state
+     *
+     * @return The players.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Map<Integer, Player> players(FinskaState state)
+        throws PersistenceException
+    {
+        return state.mDataService.getPlayers();
+    }
+
+    /**
+     * Benchmarks writing the encoded players, as the end point does.
+     *
+     * @param state the shared state
+     *
+     * @return The response.
+     *
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @Benchmark
+    public MockHttpServletResponse playersEncoded(FinskaState state)
+        throws PersistenceException, IOException
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/data/players");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        state.mDataController.players(request, response);
+        return response;
+    }
+}
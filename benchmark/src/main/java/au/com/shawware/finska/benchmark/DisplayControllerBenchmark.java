@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Benchmarks the display controller's end points. The layout itself is
+ * not rendered, only the model (and any fragment) it would be given.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("static-method")
+public class DisplayControllerBenchmark
+{
+    /**
+     * Benchmarks the current leader board.
+     *
+     * @param state the shared state
+     *
+     * @return The model.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Model leaderBoard(FinskaState state)
+        throws PersistenceException
+    {
+        Model model = new ExtendedModelMap();
+        state.mDisplayController.leaderBoard(model, new MockHttpServletRequest(), new MockHttpServletResponse());
+        return model;
+    }
+
+    /**
+     * Benchmarks the rounds and running totals.
+     *
+     * @param state the shared state
+     *
+     * @return The model.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Model rounds(FinskaState state)
+        throws PersistenceException
+    {
+        Model model = new ExtendedModelMap();
+        state.mDisplayController.rounds(model);
+        return model;
+    }
+
+    /**
+     * Benchmarks the rank history table.
+     *
+     * @param state the shared state
+     *
+     * @return The model.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Model rankHistoryTable(FinskaState state)
+        throws PersistenceException
+    {
+        Model model = new ExtendedModelMap();
+        state.mDisplayController.rankHistoryTable(model, new MockHttpServletRequest(), new MockHttpServletResponse());
+        return model;
+    }
+
+    /**
+     * Benchmarks the rank history chart, which is converted for Chart.js.
+     *
+     * @param state the shared state
+     *
+     * @return The model.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Model rankHistoryChart(FinskaState state)
+        throws PersistenceException
+    {
+        Model model = new ExtendedModelMap();
+        state.mDisplayController.rankHistoryChart(model);
+        return model;
+    }
+
+    /**
+     * Benchmarks the points history chart, which is converted for Chart.js.
+     *
+     * @param state the shared state
+     *
+     * @return The model.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public Model resultHistoryChart(FinskaState state)
+        throws PersistenceException
+    {
+        Model model = new ExtendedModelMap();
+        state.mDisplayController.resultHistoryChart(model);
+        return model;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import au.com.shawware.finska.controller.DataController;
+import au.com.shawware.finska.controller.DisplayController;
+import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.tools.SyntheticDataGenerator;
+import au.com.shawware.finska.webapp.FinskaWebApp;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * The state shared by the benchmarks: a synthetic data directory and the
+ * application's beans wired over it (without a web server).
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings("nls")
+public class FinskaState
+{
+    /** The seed used to generate the data. */
+    private static final long SEED = 20181018L;
+
+    /** The number of players. */
+    @Param("20")
+    public int players;
+    /** The number of competitions. */
+    @Param("1")
+    public int competitions;
+    /** The number of rounds per competition. */
+    @Param({ "10", "50" })
+    public int rounds;
+    /** The number of matches per round. */
+    @Param("5")
+    public int matches;
+    /** Whether results may be served from the application's caches. */
+    @Param({ "true", "false" })
+    public boolean cached;
+
+    /** The generated data directory. */
+    private Path mDataDir;
+    /** The application context. */
+    private ConfigurableApplicationContext mContext;
+    /** The data service. */
+    DataService mDataService;
+    /** The display controller. */
+    DisplayController mDisplayController;
+    /** The data controller. */
+    DataController mDataController;
+
+    /**
+     * Generates the data and starts the application over it.
+     *
+     * @throws IOException error creating the data directory
+     * @throws PersistenceException error generating the data
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException, PersistenceException
+    {
+        mDataDir = Files.createTempDirectory("finska-benchmark");
+        new SyntheticDataGenerator(SEED, players, competitions, rounds, matches).generate(mDataDir.toString());
+        mContext = new SpringApplicationBuilder(FinskaWebApp.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .properties("au.com.shawware.finska.datadir=" + mDataDir,
+                            "au.com.shawware.finska.cache.fragments=true",
+                            "logging.file=",
+                            "logging.level.root=WARN",
+                            "logging.level.au.com.shawware=WARN")
+                .run();
+        mDataService       = mContext.getBean(DataService.class);
+        mDisplayController = mContext.getBean(DisplayController.class);
+        mDataController    = mContext.getBean(DataController.class);
+    }
+
+    /**
+     * Discards all derived data when caching is not wanted, so that each
+     * invocation measures the full computation.
+     */
+    @Setup(Level.Invocation)
+    public void discardCaches()
+    {
+        if (!cached)
+        {
+            mDataService.getResultsCache().invalidateCurrent();
+            mDataService.getResponseCache().clear();
+            mDataService.getFragmentCache().clear();
+        }
+    }
+
+    /**
+     * Stops the application and removes the data.
+     *
+     * @throws IOException error removing the data directory
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+        throws IOException
+    {
+        mContext.close();
+        try (Stream<Path> paths = Files.walk(mDataDir))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
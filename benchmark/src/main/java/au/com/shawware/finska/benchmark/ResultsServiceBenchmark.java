@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.shawware.compadmin.scoring.EntrantHistory;
+import au.com.shawware.compadmin.scoring.EntrantResult;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Benchmarks the underlying results service, which scores the whole
+ * competition on every call (these calls bypass the application's caches).
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("static-method")
+public class ResultsServiceBenchmark
+{
+    /**
+     * Benchmarks scoring the current leader board.
+     *
+     * @param state the shared state
+     *
+     * @return The leader board.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public List<EntrantResult> leaderBoard(FinskaState state)
+        throws PersistenceException
+    {
+        return state.mDataService.getResultsService().getLeaderBoard();
+    }
+
+    /**
+     * Benchmarks scoring the round results.
+     *
+     * @param state the shared state
+     *
+     * @return The round results.
+     */
+    @Benchmark
+    public List<List<EntrantResult>> roundResults(FinskaState state)
+    {
+        return state.mDataService.getResultsService().getRoundResults();
+    }
+
+    /**
+     * Benchmarks scoring the rank history.
+     *
+     * @param state the shared state
+     *
+     * @return The rank history.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public List<EntrantHistory> rankHistory(FinskaState state)
+        throws PersistenceException
+    {
+        return state.mDataService.getResultsService().getRankHistory();
+    }
+
+    /**
+     * Benchmarks scoring the points history.
+     *
+     * @param state the shared state
+     *
+     * @return The points history.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @Benchmark
+    public List<EntrantHistory> resultHistory(FinskaState state)
+        throws PersistenceException
+    {
+        return state.mDataService.getResultsService().getResultHistory();
+    }
+}
@@ -0,0 +1,11 @@
+/*
+ * Copyright (C) 2018 shawware.com.au License: GNU General Public License V3 (or
+ * later) https://www.gnu.org/copyleft/gpl.html
+ */
+
+/**
+ * JMH benchmarks for the web application's controllers and services.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+package au.com.shawware.finska.benchmark;
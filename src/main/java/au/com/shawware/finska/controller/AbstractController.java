@@ -8,12 +8,16 @@
 package au.com.shawware.finska.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.ui.Model;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import au.com.shawware.finska.service.CompetitionService;
 import au.com.shawware.finska.service.DataService;
 import au.com.shawware.finska.service.MatchService;
+import au.com.shawware.finska.service.Page;
 import au.com.shawware.finska.service.PlayerService;
+import au.com.shawware.finska.service.ResultsCache;
 import au.com.shawware.finska.service.ResultsService;
 import au.com.shawware.finska.service.RoundService;
 
@@ -58,6 +62,21 @@ public abstract class AbstractController
     protected static final String MATCHES = "matches";
     /** The name of the attribute / file key that is used for a single match. */
     protected static final String MATCH = "match";
+    /** The name of the attribute / fragment that is used for statistics. */
+    protected static final String STATISTICS = "stats";
+    /** The name of the attribute / fragment that is used for head-to-head records. */
+    protected static final String HEAD_TO_HEAD = "headtohead";
+    /** The name of the attribute that holds the link to the next page (if any). */
+    protected static final String NEXT_PAGE = "nextPage";
+    /** The name of the attribute that holds the number of journalled updates that could not be applied. */
+    protected static final String FAILED_WRITES = "failedWrites";
+    /** The name of the attribute that holds where journalled updates that could not be applied are kept. */
+    protected static final String FAILED_WRITES_FILE = "failedWritesFile";
+
+    /** The name of the request parameter that holds a page cursor. */
+    protected static final String CURSOR = "cursor";
+    /** The name of the request parameter that holds a page size. */
+    protected static final String LIMIT = "limit";
 
     /** The key used for the display operation. */
     protected static final String DISPLAY = "display";
@@ -85,6 +104,8 @@ public abstract class AbstractController
     protected final MatchService mMatchService;
     /** The derived player service. */
     protected final PlayerService mPlayerService;
+    /** The derived results cache. */
+    protected final ResultsCache mResultsCache;
 
     /**
      * Constructs a new controller.
@@ -99,6 +120,26 @@ public abstract class AbstractController
         mRoundService       = dataService.getRoundService();
         mMatchService       = dataService.getMatchService();
         mPlayerService      = dataService.getPlayerService();
+        mResultsCache       = dataService.getResultsCache();
+    }
+
+    /**
+     * Adds the items on the given page to the model, along with a link to
+     * the next page if there is one. The link is the current request with
+     * the next page's cursor.
+     *
+     * @param model the model to add data to
+     * @param attribute the name of the attribute to hold the items
+     * @param page the page
+     */
+    protected final void addPage(Model model, String attribute, Page<?> page)
+    {
+        model.addAttribute(attribute, page.getItems());
+        if (page.getNextCursor() != null)
+        {
+            model.addAttribute(NEXT_PAGE, ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam(CURSOR, page.getNextCursor()).build().toUriString());
+        }
     }
 
     /**
@@ -8,24 +8,30 @@
 package au.com.shawware.finska.controller;
 
 import java.time.LocalDate;
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
 import au.com.shawware.finska.entity.FinskaCompetition;
 import au.com.shawware.finska.entity.FinskaRound;
 import au.com.shawware.finska.entity.Player;
+import au.com.shawware.finska.service.CompetitionSnapshot;
 import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.service.MatchEntry;
 import au.com.shawware.util.persistence.PersistenceException;
 
 /**
@@ -49,22 +55,42 @@ public class AdminController extends AbstractController
     }
 
     /**
-     * Displays a current players with update options.
+     * Adds the journalled updates that could not be applied (if any) to
+     * every admin page, so that they are not overlooked.
      * 
      * @param model the model to add data to
+     */
+    @ModelAttribute
+    public void failedWrites(Model model)
+    {
+        int failed = mDataService.getFailedWriteCount();
+        if (failed > 0)
+        {
+            model.addAttribute(FAILED_WRITES, failed);
+            model.addAttribute(FAILED_WRITES_FILE, mDataService.getFailedWritesFile().toString());
+        }
+    }
+
+    /**
+     * Displays a page of the current players with update options.
      * 
-     * @return The template name.
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
+     * @param model the model to add data to
      * 
-     * @throws PersistenceException error accessing players
+     * @return The template name.
      */
     @GetMapping("/players")
-    public String players(Model model)
-        throws PersistenceException
+    public String players(@RequestParam(name=CURSOR, required=false) String cursor,
+                          @RequestParam(name=LIMIT, required=false) Integer limit,
+                          Model model)
     {
+        // Show any player updates just made.
+        mDataService.flushPendingWrites();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.players");
         model.addAttribute(FRAGMENT_FILE_KEY, PLAYER);
         model.addAttribute(FRAGMENT_NAME_KEY, PLAYERS);
-        model.addAttribute(PLAYERS, mPlayerService.getPlayers());
+        addPage(model, PLAYERS, mDataService.getPlayers(cursor, limit));
         model.addAttribute(ADMIN, true);
         return TEMPLATE;
     }
@@ -98,7 +124,7 @@ public class AdminController extends AbstractController
     public ModelAndView createPlayer(@RequestParam("name") String name)
         throws PersistenceException
     {
-        mPlayerService.createPlayer(name);
+        mDataService.createPlayer(name);
         return redirectTo("/admin/players");
     }
 
@@ -127,7 +153,7 @@ public class AdminController extends AbstractController
     public String updatePlayer(@PathVariable("id") int id, Model model)
         throws PersistenceException
     {
-        Player player = mPlayerService.getPlayer(id);
+        Player player = mDataService.getPlayer(id);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.player.update");
         model.addAttribute(VIEW_TITLE_ARG_ONE, player.getId());
         model.addAttribute(FRAGMENT_FILE_KEY, PLAYER);
@@ -150,7 +176,7 @@ public class AdminController extends AbstractController
     public ModelAndView updatePlayer(@PathVariable("id") int id, @RequestParam("name") String name)
         throws PersistenceException
     {
-        mPlayerService.updatePlayer(id, name);
+        mDataService.updatePlayer(id, name);
         return redirectTo("/admin/players");
     }
 
@@ -172,18 +198,21 @@ public class AdminController extends AbstractController
     }
 
     /**
-     * Displays the list of competitions.
+     * Displays a page of the list of competitions.
      * 
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
      * @param model the model to add data to
      * 
      * @return The template name.
      */
     @GetMapping("/competitions")
-    public String competitions(Model model)
+    public String competitions(@RequestParam(name=CURSOR, required=false) String cursor,
+                               @RequestParam(name=LIMIT, required=false) Integer limit,
+                               Model model)
     {
-        List<FinskaCompetition> competitions = mResultsService.getCompetitions();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.competitions");
-        model.addAttribute(COMPETITIONS, competitions);
+        addPage(model, COMPETITIONS, mDataService.getCompetitions(cursor, limit));
         model.addAttribute(FRAGMENT_FILE_KEY, COMPETITION);
         model.addAttribute(FRAGMENT_NAME_KEY, COMPETITIONS);
         model.addAttribute(ADMIN, true);
@@ -206,7 +235,7 @@ public class AdminController extends AbstractController
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.competition.create");
         model.addAttribute(FRAGMENT_FILE_KEY, COMPETITION);
         model.addAttribute(FRAGMENT_NAME_KEY, CREATE);
-        model.addAttribute(PLAYERS, mPlayerService.getPlayers());
+        model.addAttribute(PLAYERS, mDataService.getPlayerDirectory());
         model.addAttribute("date", LocalDate.now());
         return TEMPLATE;
     }
@@ -228,7 +257,7 @@ public class AdminController extends AbstractController
                                           @RequestParam(name="players", required=false) int[] players)
         throws PersistenceException
     {
-        FinskaCompetition competition = mCompetitionService.createCompetition(name, startDate, players);
+        FinskaCompetition competition = mDataService.createCompetition(name, startDate, players);
         return redirectTo("/admin/update/competition", competition.getId());
     }
 
@@ -244,9 +273,12 @@ public class AdminController extends AbstractController
     }
 
     /**
-     * Displays the nominated competition so that it can be updated.
+     * Displays the nominated competition so that it can be updated, with
+     * a page of its rounds.
      * 
      * @param id the competition ID
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
      * @param model the model to add data to
      * 
      * @return The template name.
@@ -254,21 +286,24 @@ public class AdminController extends AbstractController
      * @throws PersistenceException error loading data
      */
     @GetMapping("/update/competition/{id}")
-    public String updateCompetition(@PathVariable("id") int id, Model model)
+    public String updateCompetition(@PathVariable("id") int id,
+                                    @RequestParam(name=CURSOR, required=false) String cursor,
+                                    @RequestParam(name=LIMIT, required=false) Integer limit,
+                                    Model model)
         throws PersistenceException
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
+        // Show any updates just made.
+        mDataService.flushPendingWrites();
+        CompetitionSnapshot competition = mDataService.requireCompetitionSnapshot(id);
         Set<Integer> ids = competition.getEntrantIds();
-        List<FinskaRound> rounds = competition.getRounds();
-        Collections.reverse(rounds); // Most recent round first.
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.competition.update");
         model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
         model.addAttribute(FRAGMENT_FILE_KEY, COMPETITION);
         model.addAttribute(FRAGMENT_NAME_KEY, UPDATE);
         model.addAttribute(COMPETITION, competition);
         model.addAttribute("checked", ids);
-        model.addAttribute(ROUNDS, rounds);
-        model.addAttribute(PLAYERS, mPlayerService.getPlayers());
+        addPage(model, ROUNDS, mDataService.getRounds(id, true, cursor, limit));
+        model.addAttribute(PLAYERS, mDataService.getPlayerDirectory());
         return TEMPLATE;
     }
 
@@ -291,7 +326,7 @@ public class AdminController extends AbstractController
                                           @RequestParam(name="players", required=false) int[] players)
         throws PersistenceException
     {
-        mCompetitionService.updateCompetition(id, name, startDate, players);
+        mDataService.updateCompetition(id, name, startDate, players);
         return redirectTo("/admin/update/competition", id);
     }
 
@@ -334,7 +369,7 @@ public class AdminController extends AbstractController
     public String newRound(@PathVariable("id") int id,
                            Model model)
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
+        FinskaCompetition competition = mDataService.getCompetition(id);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.round.create");
         model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
         model.addAttribute(FRAGMENT_FILE_KEY, ROUND);
@@ -362,7 +397,7 @@ public class AdminController extends AbstractController
                                     @RequestParam(name="players", required=false) int[] playerIDs)
         throws PersistenceException
     {
-        FinskaRound round = mRoundService.createRound(id, roundDate, playerIDs);
+        FinskaRound round = mDataService.createRound(id, roundDate, playerIDs);
         return redirectTo("/admin/update/round", id, round.getKey());
     }
 
@@ -393,7 +428,9 @@ public class AdminController extends AbstractController
                               @PathVariable("roundNumber") int roundNumber,
                               Model model)
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
+        // Show any updates just made.
+        mDataService.flushPendingWrites();
+        FinskaCompetition competition = mDataService.getCompetition(id);
         FinskaRound round = competition.getRound(roundNumber);
         Set<Integer> ids = round.getPlayerIds();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.round.update");
@@ -428,7 +465,7 @@ public class AdminController extends AbstractController
                                     @RequestParam("round-date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate roundDate)
         throws PersistenceException
     {
-        mRoundService.updateRound(id, roundNumber, roundDate, players);
+        mDataService.updateRound(id, roundNumber, roundDate, players);
         return redirectTo("/admin/update/round", id, roundNumber);
     }
 
@@ -450,6 +487,21 @@ public class AdminController extends AbstractController
         return redirectTo("/admin/create/match", id, roundNumber);
     }
 
+    /**
+     * Starts the entry of several matches in the given round at once.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * 
+     * @return The next page to display.
+     */
+    @PostMapping(value="/update/round/{id}/{roundNumber}", params="action=bulk")
+    public ModelAndView createMatches(@PathVariable("id") int id,
+                                      @PathVariable("roundNumber") int roundNumber)
+    {
+        return redirectTo("/admin/create/matches", id, roundNumber);
+    }
+
     /**
      * Cancels the updating of a round.
      * 
@@ -477,7 +529,7 @@ public class AdminController extends AbstractController
                            @PathVariable("roundNumber") int roundNumber,
                            Model model)
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
+        FinskaCompetition competition = mDataService.getCompetition(id);
         FinskaRound round = competition.getRound(roundNumber);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.match.create");
         model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
@@ -508,7 +560,7 @@ public class AdminController extends AbstractController
                                     @RequestParam(name="fast-winners", defaultValue="false") boolean fastWin)
         throws PersistenceException
     {
-        mMatchService.createMatch(id, roundNumber, winnerIds, fastWin);
+        mDataService.createMatch(id, roundNumber, winnerIds, fastWin);
         return redirectTo("/admin/update/round", id, roundNumber);
     }
 
@@ -548,7 +600,7 @@ public class AdminController extends AbstractController
                                     @RequestParam(name="fast-winners", defaultValue="false") boolean fastWin)
         throws PersistenceException
     {
-        mMatchService.updateMatch(id, roundNumber, matchNumber, winnerIds, fastWin);
+        mDataService.updateMatch(id, roundNumber, matchNumber, winnerIds, fastWin);
         return redirectTo("/admin/update/round", id, roundNumber);
     }
 
@@ -571,4 +623,106 @@ public class AdminController extends AbstractController
     {
         return redirectTo("/admin/create/match", id, roundNumber);
     }
+
+    /**
+     * Displays a template for entering several matches in a round at once.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param count the number of matches to allow for
+     * @param model the model to add data to
+     * 
+     * @return The template name.
+     * 
+     * @throws IllegalArgumentException the count is invalid
+     */
+    @GetMapping("/create/matches/{id}/{roundNumber}")
+    public String newMatches(@PathVariable("id") int id,
+                             @PathVariable("roundNumber") int roundNumber,
+                             @RequestParam(name="count", defaultValue="6") int count,
+                             Model model)
+    {
+        if ((count < 1) || (count > DataService.MAX_NEW_MATCHES))
+        {
+            throw new IllegalArgumentException("Invalid match count: " + count);
+        }
+        mDataService.flushPendingWrites();
+        FinskaCompetition competition = mDataService.getCompetition(id);
+        FinskaRound round = competition.getRound(roundNumber);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.match.bulk");
+        model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
+        model.addAttribute(VIEW_TITLE_ARG_TWO, roundNumber);
+        model.addAttribute(FRAGMENT_FILE_KEY, MATCH);
+        model.addAttribute(FRAGMENT_NAME_KEY, "bulk");
+        model.addAttribute(COMPETITION, competition);
+        model.addAttribute(ROUND, round);
+        model.addAttribute("count", count);
+        return TEMPLATE;
+    }
+
+    /**
+     * Creates several new matches in a round from a form. Rows with no
+     * winners and no fast win selected are unused and ignored; the rest
+     * are validated in the same way as matches submitted as JSON.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param entries the submitted matches
+     * 
+     * @return The next page to display.
+     * 
+     * @throws PersistenceException invalid match or error creating matches
+     */
+    @PostMapping(value="/create/matches/{id}/{roundNumber}", params="action=create")
+    public ModelAndView createMatches(@PathVariable("id") int id,
+                                      @PathVariable("roundNumber") int roundNumber,
+                                      @ModelAttribute MatchEntries entries)
+        throws PersistenceException
+    {
+        List<MatchEntry> matches = entries.getMatches().stream()
+                .filter(match -> (match != null) && ((match.getWinners().length > 0) || match.isFastWin()))
+                .collect(Collectors.toList());
+        if (!matches.isEmpty())
+        {
+            mDataService.createMatches(id, roundNumber, matches);
+        }
+        return redirectTo("/admin/update/round", id, roundNumber);
+    }
+
+    /**
+     * Creates several new matches in a round from JSON. Every match must
+     * have at least one winner.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param matches the new matches, in order
+     * 
+     * @return The numbers of the new matches.
+     * 
+     * @throws PersistenceException invalid match or error creating matches
+     */
+    @PostMapping(value="/create/matches/{id}/{roundNumber}", consumes=MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public int[] createMatches(@PathVariable("id") int id,
+                               @PathVariable("roundNumber") int roundNumber,
+                               @RequestBody List<MatchEntry> matches)
+        throws PersistenceException
+    {
+        return mDataService.createMatches(id, roundNumber, matches);
+    }
+
+    /**
+     * Cancels the entry of several matches.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * 
+     * @return The next page to display.
+     */
+    @PostMapping(value="/create/matches/{id}/{roundNumber}", params="action=cancel")
+    public ModelAndView cancelCreateMatches(@PathVariable("id") int id,
+                                            @PathVariable("roundNumber") int roundNumber)
+    {
+        return redirectTo("/admin/update/round", id, roundNumber);
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import au.com.shawware.finska.service.DataService;
+
+/**
+ * Answers conditional requests with "304 Not Modified" when the data
+ * has not changed since the client last retrieved it. This happens
+ * before any controller is invoked, so no results are computed and
+ * no templates are rendered.
+ *
+ * The entity tag is derived from the data version maintained by the
+ * {@link DataService} and the response locale, as the same data is
+ * rendered differently for different locales. It is a weak tag, as the
+ * same tag is sent whether or not the body is compressed, and the
+ * responses vary by both the accepted encodings and languages.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@Component
+@SuppressWarnings("nls")
+public class ConditionalRequestInterceptor implements HandlerInterceptor
+{
+    /** The request headers that the responses vary by. */
+    static final String VARY = HttpHeaders.ACCEPT_ENCODING + ", " + HttpHeaders.ACCEPT_LANGUAGE;
+
+    /** The data service to consult for the data version. */
+    private final DataService mDataService;
+
+    /**
+     * Constructs a new interceptor.
+     * 
+     * @param dataService the data service to use
+     */
+    public ConditionalRequestInterceptor(DataService dataService)
+    {
+        mDataService = dataService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        // Clients must revalidate but may keep their copy.
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader(HttpHeaders.VARY, VARY);
+        String eTag = "W/\"" + mDataService.getDataVersion() + "-" + request.getLocale().toLanguageTag() + "\"";
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        return !webRequest.checkNotModified(eTag, mDataService.getLastModified());
+    }
+}
@@ -7,17 +7,38 @@
 
 package au.com.shawware.finska.controller;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaMatch;
+import au.com.shawware.finska.entity.FinskaRound;
 import au.com.shawware.finska.entity.Player;
+import au.com.shawware.finska.service.CompetitionSnapshot;
+import au.com.shawware.finska.service.Computation;
 import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.service.HeadToHead;
+import au.com.shawware.finska.service.HeadToHeadTable;
+import au.com.shawware.finska.service.Page;
+import au.com.shawware.finska.service.PlayerStatistics;
+import au.com.shawware.finska.service.ResponseCache;
+import au.com.shawware.finska.service.ResponseCache.CachedResponse;
 import au.com.shawware.util.persistence.PersistenceException;
 
 /**
@@ -31,6 +52,9 @@ public class DataController extends AbstractController
 {
     private static Logger LOG = LoggerFactory.getLogger(DataController.class);
 
+    /** The derived response cache. */
+    private final ResponseCache mResponseCache;
+
     /**
      * Constructs a new controller.
      * 
@@ -39,24 +63,39 @@ public class DataController extends AbstractController
     public DataController(DataService dataService)
     {
         super(dataService);
+        mResponseCache = dataService.getResponseCache();
     }
 
     /**
-     * Retrieves the player data and returns it without change.
+     * Writes the player data from the response cache.
      * 
-     * @return The player data.
+     * @param request the request being answered
+     * @param response where to write the player data
      * 
      * @throws PersistenceException error accessing players
+     * @throws IOException error writing the response
      */
-    @GetMapping("/players")
-    public Map<Integer, Player> players()
-        throws PersistenceException
+    @GetMapping(value="/players", params={ "!" + CURSOR, "!" + LIMIT })
+    public void players(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
     {
-        Map<Integer, Player> players = mPlayerService.getPlayers();
-        LOG.debug("Players retrieved: " + players.size()); //$NON-NLS-1$
-        return players;
+        writeCached("players", () -> mDataService.getPlayers(), request, response); //$NON-NLS-1$
     }
 
+    /**
+     * Retrieves a page of the players, in ID order.
+     * 
+     * @param cursor the cursor returned with the previous page (if not the first)
+     * @param limit the most items to return (if not the default)
+     * 
+     * @return The page of players.
+     */
+    @GetMapping("/players")
+    public Page<Player> players(@RequestParam(name=CURSOR, required=false) String cursor,
+                                @RequestParam(name=LIMIT, required=false) Integer limit)
+    {
+        return mDataService.getPlayers(cursor, limit);
+    }
 
     /**
      * Retrieves the player data and returns it without change.
@@ -71,8 +110,422 @@ public class DataController extends AbstractController
     public Player player(@PathVariable("id") int id)
         throws PersistenceException
     {
-        Player player = mPlayerService.getPlayer(id);
+        Player player = mDataService.getPlayer(id);
         LOG.debug("Player retrieved: " + player); //$NON-NLS-1$
         return player;
     }
+
+    /**
+     * Retrieves the specified player's career statistics.
+     * 
+     * @param id the player's ID
+     * 
+     * @return The player's statistics.
+     * 
+     * @throws PersistenceException error loading data
+     */
+    @GetMapping("/player/{id}/stats")
+    public PlayerStatistics playerStatistics(@PathVariable("id") int id)
+        throws PersistenceException
+    {
+        return mDataService.getPlayerStatistics(id);
+    }
+
+    /**
+     * Retrieves the head-to-head records of every pair of players who
+     * have played a match together.
+     * 
+     * @return The table of records.
+     * 
+     * @throws PersistenceException error loading data
+     */
+    @GetMapping("/headtohead")
+    public HeadToHeadTable headToHead()
+        throws PersistenceException
+    {
+        return mDataService.getHeadToHeadTable();
+    }
+
+    /**
+     * Retrieves how the specified player fares in the matches they have
+     * played in with the specified opponent.
+     * 
+     * @param id the player's ID
+     * @param opponentId the opponent's ID
+     * 
+     * @return The head-to-head record.
+     * 
+     * @throws PersistenceException error loading data
+     */
+    @GetMapping("/headtohead/{id}/{opponentId}")
+    public HeadToHead headToHead(@PathVariable("id") int id, @PathVariable("opponentId") int opponentId)
+        throws PersistenceException
+    {
+        return mDataService.getHeadToHead(id, opponentId);
+    }
+
+    /**
+     * Retrieves all the competitions.
+     * 
+     * @return The competitions.
+     */
+    @GetMapping(value="/competitions", params={ "!" + CURSOR, "!" + LIMIT })
+    public List<FinskaCompetition> competitions()
+    {
+        List<FinskaCompetition> competitions = mDataService.getCompetitions();
+        LOG.debug("Competitions retrieved: " + competitions.size()); //$NON-NLS-1$
+        return competitions;
+    }
+
+    /**
+     * Retrieves a page of the competitions, in ID order.
+     * 
+     * @param cursor the cursor returned with the previous page (if not the first)
+     * @param limit the most items to return (if not the default)
+     * 
+     * @return The page of competitions.
+     */
+    @GetMapping("/competitions")
+    public Page<FinskaCompetition> competitions(@RequestParam(name=CURSOR, required=false) String cursor,
+                                                @RequestParam(name=LIMIT, required=false) Integer limit)
+    {
+        return mDataService.getCompetitions(cursor, limit);
+    }
+
+    /**
+     * Retrieves the specified competition.
+     * 
+     * @param id the competition ID
+     * 
+     * @return The competition.
+     */
+    @GetMapping("/competition/{id}")
+    public CompetitionSnapshot competition(@PathVariable("id") int id)
+    {
+        CompetitionSnapshot competition = mDataService.requireCompetitionSnapshot(id);
+        LOG.debug("Competition retrieved: " + competition.getKey()); //$NON-NLS-1$
+        return competition;
+    }
+
+    /**
+     * Retrieves the rounds of the specified competition.
+     * 
+     * @param id the competition ID
+     * 
+     * @return The competition's rounds.
+     */
+    @GetMapping(value="/competition/{id}/rounds", params={ "!" + CURSOR, "!" + LIMIT })
+    public List<FinskaRound> rounds(@PathVariable("id") int id)
+    {
+        List<FinskaRound> rounds = mDataService.requireCompetitionSnapshot(id).getRounds();
+        LOG.debug("Rounds retrieved: " + rounds.size()); //$NON-NLS-1$
+        return rounds;
+    }
+
+    /**
+     * Retrieves a page of the rounds of the specified competition, oldest first.
+     * 
+     * @param id the competition ID
+     * @param cursor the cursor returned with the previous page (if not the first)
+     * @param limit the most items to return (if not the default)
+     * 
+     * @return The page of rounds.
+     */
+    @GetMapping("/competition/{id}/rounds")
+    public Page<FinskaRound> rounds(@PathVariable("id") int id,
+                                    @RequestParam(name=CURSOR, required=false) String cursor,
+                                    @RequestParam(name=LIMIT, required=false) Integer limit)
+    {
+        return mDataService.getRounds(id, false, cursor, limit);
+    }
+
+    /**
+     * Retrieves the specified round.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * 
+     * @return The round.
+     */
+    @GetMapping("/round/{id}/{roundNumber}")
+    public FinskaRound round(@PathVariable("id") int id,
+                             @PathVariable("roundNumber") int roundNumber)
+    {
+        FinskaRound round = mDataService.requireRound(id, roundNumber);
+        LOG.debug("Round retrieved: " + round.getKey()); //$NON-NLS-1$
+        return round;
+    }
+
+    /**
+     * Retrieves the matches of the specified round.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * 
+     * @return The round's matches.
+     */
+    @GetMapping("/round/{id}/{roundNumber}/matches")
+    public List<FinskaMatch> matches(@PathVariable("id") int id,
+                                     @PathVariable("roundNumber") int roundNumber)
+    {
+        List<FinskaMatch> matches = mDataService.requireRound(id, roundNumber).getMatches();
+        LOG.debug("Matches retrieved: " + matches.size()); //$NON-NLS-1$
+        return matches;
+    }
+
+    /**
+     * Retrieves the latest leader board.
+     * 
+     * @param request the request being answered
+     * @param response where to write the leader board
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/table")
+    public void leaderBoard(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("table", () -> mResultsCache.getLeaderBoard(), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Retrieves the leader board after the given number of rounds of the specified competition.
+     * 
+     * @param id the competition ID
+     * @param roundNumber the number of rounds
+     * 
+     * @param request the request being answered
+     * @param response where to write the leader board
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/table/{id}/{roundNumber}")
+    public void leaderBoard(@PathVariable("id") int id,
+                            @PathVariable("roundNumber") int roundNumber,
+                            HttpServletRequest request,
+                            HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        mDataService.requireRound(id, roundNumber);
+        writeCached("table/" + id + "/" + roundNumber, //$NON-NLS-1$ //$NON-NLS-2$
+                    () -> mResultsCache.getLeaderBoard(id, roundNumber), request, response);
+    }
+
+    /**
+     * Retrieves the results of each round of the current competition.
+     * 
+     * @param request the request being answered
+     * @param response where to write the round results
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/rounds")
+    public void roundResults(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("rounds", () -> mResultsCache.getRoundResults(), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Retrieves the players' rank history over all rounds of the current competition.
+     * 
+     * @param request the request being answered
+     * @param response where to write the rank history
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/history/rank")
+    public void rankHistory(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("history/rank", () -> mResultsCache.getRankHistory(), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Retrieves the players' points history over all rounds of the current competition.
+     * 
+     * @param request the request being answered
+     * @param response where to write the points history
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/history/points")
+    public void resultHistory(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("history/points", () -> mResultsCache.getResultHistory(), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Retrieves the players' rank history for the current competition as
+     * chart data. The chart is built once per data version.
+     * 
+     * @param request the request being answered
+     * @param response where to write the chart data
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/history/rank/chart")
+    public void rankHistoryChart(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("history/rank/chart", () -> mDataService.getHistoryChart(true), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Retrieves the players' points history for the current competition as
+     * chart data. The chart is built once per data version.
+     * 
+     * @param request the request being answered
+     * @param response where to write the chart data
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    @GetMapping("/history/points/chart")
+    public void resultHistoryChart(HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        writeCached("history/points/chart", () -> mDataService.getHistoryChart(false), request, response); //$NON-NLS-1$
+    }
+
+    /**
+     * Subscribes to updates of the current leader board. The leader board
+     * is sent as a Server-Sent Event whenever the results change.
+     * 
+     * @return The event stream.
+     */
+    @GetMapping("/stream/leaderboard")
+    public SseEmitter leaderBoardStream()
+    {
+        return mDataService.getLeaderBoardPublisher().subscribe();
+    }
+
+    /**
+     * Retrieves the results cache statistics.
+     * 
+     * @return The cache statistics.
+     */
+    @GetMapping("/cache/results")
+    public Map<String, Long> resultsCache()
+    {
+        return mResultsCache.getStatistics();
+    }
+
+    /**
+     * Retrieves the response cache statistics.
+     * 
+     * @return The cache statistics.
+     */
+    @GetMapping("/cache/responses")
+    public Map<String, Long> responseCache()
+    {
+        return mResponseCache.getStatistics();
+    }
+
+    /**
+     * Retrieves the fragment cache statistics.
+     * 
+     * @return The cache statistics.
+     */
+    @GetMapping("/cache/fragments")
+    public Map<String, Long> fragmentCache()
+    {
+        return mDataService.getFragmentCache().getStatistics();
+    }
+
+    /**
+     * Writes the encoded payload for the given end point straight to the
+     * response, serialising it only if the response cache does not hold
+     * it for the current data version. The compressed form is written if
+     * the client accepts it.
+     * 
+     * @param key identifies the end point
+     * @param payload computes the payload
+     * @param request the request being answered
+     * @param response where to write the payload
+     * 
+     * @throws PersistenceException error loading data
+     * @throws IOException error writing the response
+     */
+    private void writeCached(String key, Computation<?> payload, HttpServletRequest request, HttpServletResponse response)
+        throws PersistenceException, IOException
+    {
+        CachedResponse cached = mResponseCache.get(key, mDataService.getDataVersion(), payload);
+        byte[] body;
+        if (acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING)))
+        {
+            body = cached.getCompressedBody();
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip"); //$NON-NLS-1$
+        }
+        else
+        {
+            body = cached.getBody();
+        }
+        response.setHeader(HttpHeaders.VARY, ConditionalRequestInterceptor.VARY);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Determines whether the given Accept-Encoding header accepts gzip.
+     * gzip is accepted if it (or x-gzip) is listed with a non-zero
+     * quality, or if it is not listed and * is listed with a non-zero
+     * quality. A quality that cannot be parsed counts as zero.
+     * 
+     * @param header the Accept-Encoding header (if any)
+     * 
+     * @return Whether gzip is acceptable.
+     */
+    @SuppressWarnings({ "nls", "boxing" })
+    static boolean acceptsGzip(String header)
+    {
+        if (header == null)
+        {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String element : header.split(","))
+        {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++)
+            {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q="))
+                {
+                    try
+                    {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        quality = 0.0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip"))
+            {
+                gzip = (gzip == null) ? quality : Math.max(gzip, quality);
+            }
+            else if (coding.equals("*"))
+            {
+                any = quality;
+            }
+        }
+        if (gzip != null)
+        {
+            return gzip > 0;
+        }
+        return (any != null) && (any > 0);
+    }
 }
@@ -9,22 +9,34 @@ package au.com.shawware.finska.controller;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.WebContext;
 
 import au.com.shawware.compadmin.scoring.EntrantHistory;
 import au.com.shawware.compadmin.scoring.EntrantResult;
 import au.com.shawware.finska.entity.FinskaCompetition;
 import au.com.shawware.finska.entity.FinskaRound;
 import au.com.shawware.finska.entity.Player;
+import au.com.shawware.finska.service.Computation;
+import au.com.shawware.finska.service.CompetitionSnapshot;
 import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.service.FragmentCache;
+import au.com.shawware.finska.service.HeadToHeadTable;
+import au.com.shawware.finska.service.PlayerStatistics;
 import au.com.shawware.util.persistence.PersistenceException;
 
 /**
@@ -37,32 +49,45 @@ import au.com.shawware.util.persistence.PersistenceException;
 @SuppressWarnings({ "nls", "boxing" })
 public class DisplayController extends AbstractController
 {
+    /** The name of the attribute that holds a pre-rendered fragment. */
+    private static final String RENDERED = "rendered";
+
+    /** The injected template engine. */
+    private final ITemplateEngine mTemplateEngine;
+    /** The derived fragment cache. */
+    private final FragmentCache mFragmentCache;
+
     /**
      * Constructs a new controller.
      * 
      * @param dataService the data service to use
+     * @param templateEngine the template engine to render fragments with
      */
-    public DisplayController(DataService dataService)
+    public DisplayController(DataService dataService, ITemplateEngine templateEngine)
     {
         super(dataService);
+        mTemplateEngine = templateEngine;
+        mFragmentCache  = dataService.getFragmentCache();
     }
 
     /**
      * Displays the latest leader board.
      * 
      * @param model the model to add data to
+     * @param request the request being answered
+     * @param response the response being rendered
      * 
      * @return The template name.
      * 
      * @throws PersistenceException error loading data
      */
     @GetMapping({"", "/", "/table"})
-    public String leaderBoard(Model model)
+    public String leaderBoard(Model model, HttpServletRequest request, HttpServletResponse response)
         throws PersistenceException
     {
-        List<EntrantResult> leaderboard = mResultsService.getLeaderBoard();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.leaderboard");
-        processLeaderBoard(leaderboard, model);
+        renderFragment("table", LEADERBOARD, LEADERBOARD, model, request, response,
+                       fragmentModel -> processLeaderBoard(mResultsCache.getLeaderBoard(), fragmentModel));
         return TEMPLATE;
     }
 
@@ -72,6 +97,8 @@ public class DisplayController extends AbstractController
      * @param id the competition ID
      * @param roundNumber the number of rounds
      * @param model the model to add data to
+     * @param request the request being answered
+     * @param response the response being rendered
      * 
      * @return The template name.
      * 
@@ -80,13 +107,16 @@ public class DisplayController extends AbstractController
     @GetMapping("/table/{id}/{roundNumber}")
     public String leaderBoard(@PathVariable("id") int id,
                               @PathVariable("roundNumber") int roundNumber,
-                              Model model)
+                              Model model,
+                              HttpServletRequest request,
+                              HttpServletResponse response)
         throws PersistenceException
     {
-        List<EntrantResult> leaderboard = mResultsService.getLeaderBoard(id, roundNumber);
+        mDataService.requireRound(id, roundNumber);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.leaderboard.round");
         model.addAttribute(VIEW_TITLE_ARG_ONE, roundNumber);
-        processLeaderBoard(leaderboard, model);
+        renderFragment("table/" + id + "/" + roundNumber, LEADERBOARD, LEADERBOARD, model, request, response,
+                       fragmentModel -> processLeaderBoard(mResultsCache.getLeaderBoard(id, roundNumber), fragmentModel));
         return TEMPLATE;
     }
 
@@ -106,7 +136,7 @@ public class DisplayController extends AbstractController
             model.addAttribute("data", true);
             EntrantResult first = leaderboard.get(0);
             model.addAttribute("spec", first.getResultSpecification());
-            model.addAttribute(PLAYERS, mPlayerService.getPlayers());
+            model.addAttribute(PLAYERS, mDataService.getPlayerDirectory());
             model.addAttribute(LEADERBOARD, leaderboard);
         }
         else
@@ -123,15 +153,18 @@ public class DisplayController extends AbstractController
      * @param model the model to add data to
      * 
      * @return The template name.
+     * 
+     * @throws PersistenceException error loading data
      */
     @GetMapping("/rounds")
     public String rounds(Model model)
+        throws PersistenceException
     {
-        FinskaCompetition competition = mResultsService.getCurrentCompetition();
+        FinskaCompetition competition = mDataService.getCurrentCompetition();
         if (competition != null)
         {
             model.addAttribute("data", true);
-            List<List<EntrantResult>> roundResults = mResultsService.getRoundResults();
+            List<List<EntrantResult>> roundResults = mResultsCache.getRoundResults();
             EntrantResult first = roundResults.get(0).get(0);
             model.addAttribute("spec", first.getResultSpecification());
             model.addAttribute(PLAYERS, competition.getEntrantMap());
@@ -153,28 +186,38 @@ public class DisplayController extends AbstractController
      * Displays the players' rank history over all rounds as a table.
      * 
      * @param model the model to add data to
+     * @param request the request being answered
+     * @param response the response being rendered
      * 
      * @return The template name.
      */
     @GetMapping("/history/rank/table")
-    public String rankHistoryTable(Model model)
+    public String rankHistoryTable(Model model, HttpServletRequest request, HttpServletResponse response)
         throws PersistenceException
     {
-        return history(model, mResultsService.getRankHistory(), "sw.finska.page.title.history.rank", true, true);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.history.rank");
+        renderFragment("history/rank", LEADERBOARD, "historyTable", model, request, response,
+                       fragmentModel -> history(fragmentModel, mResultsCache.getRankHistory()));
+        return TEMPLATE;
     }
 
     /**
      * Displays the players' points history over all rounds as a table.
      * 
      * @param model the model to add data to
+     * @param request the request being answered
+     * @param response the response being rendered
      * 
      * @return The template name.
      */
     @GetMapping("/history/points/table")
-    public String resultHistoryTable(Model model)
+    public String resultHistoryTable(Model model, HttpServletRequest request, HttpServletResponse response)
         throws PersistenceException
     {
-        return history(model, mResultsService.getResultHistory(), "sw.finska.page.title.history.points", false, true);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.history.points");
+        renderFragment("history/points", LEADERBOARD, "historyTable", model, request, response,
+                       fragmentModel -> history(fragmentModel, mResultsCache.getResultHistory()));
+        return TEMPLATE;
     }
 
     /**
@@ -186,9 +229,10 @@ public class DisplayController extends AbstractController
      */
     @GetMapping("/history/rank/chart")
     public String rankHistoryChart(Model model)
-        throws PersistenceException
     {
-        return history(model, mResultsService.getRankHistory(), "sw.finska.page.title.history.rank", true, false);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.history.rank");
+        historyChart(model, true);
+        return TEMPLATE;
     }
 
     /**
@@ -200,121 +244,71 @@ public class DisplayController extends AbstractController
      */
     @GetMapping("/history/points/chart")
     public String resultHistoryChart(Model model)
-        throws PersistenceException
     {
-        return history(model, mResultsService.getResultHistory(), "sw.finska.page.title.history.points", false, false);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.history.points");
+        historyChart(model, false);
+        return TEMPLATE;
     }
 
     /**
-     * Common processing for history end points.
+     * Common processing for history tables.
      * 
      * @param model the model to add data to
      * @param history the players' history
-     * @param title the page title to use
-     * @param rank whether to display rank or result data
-     * @param table whether to display a table or a chart
-     * 
-     * @return The template name.
      */
-    private String history(Model model, List<EntrantHistory> history, String title, boolean rank, boolean table)
+    private void history(Model model, List<EntrantHistory> history)
         throws PersistenceException
     {
-        String fragment = table ? "historyTable" : "historyChart";
-        FinskaCompetition competition = mResultsService.getCurrentCompetition();
+        FinskaCompetition competition = mDataService.getCurrentCompetition();
         if (competition != null)
         {
             model.addAttribute("data", true);
-            Map<Integer, Player> players = mPlayerService.getPlayers();
-            if (table)
-            {
-                model.addAttribute(PLAYERS, players);
-                model.addAttribute(COMPETITION, competition);
-                model.addAttribute(HISTORY, history);
-            }
-            else
-            {
-                convertToChartJs(model, history, rank, competition, players);
-            }
+            model.addAttribute(PLAYERS, mDataService.getPlayerDirectory());
+            model.addAttribute(COMPETITION, competition);
+            model.addAttribute(HISTORY, history);
         }
         else
         {
             model.addAttribute("data", false);
         }
-        model.addAttribute(VIEW_TITLE, title);
         model.addAttribute(FRAGMENT_FILE_KEY, LEADERBOARD);
-        model.addAttribute(FRAGMENT_NAME_KEY, fragment);
-        return TEMPLATE;
+        model.addAttribute(FRAGMENT_NAME_KEY, "historyTable");
     }
 
     /**
-     * Convert the history to a format that can be consumed by ChartJS.
+     * Common processing for history charts. The chart data itself is
+     * fetched by the page from the data end point, which builds it
+     * once per data version.
      * 
-     * @param model the model to add to
-     * @param history the players' history
+     * @param model the model to add data to
      * @param rank whether to display rank or points data
-     * @param competition the current competition
-     * @param players the players' data
      */
-    @SuppressWarnings("static-method")
-    private void convertToChartJs(Model model, List<EntrantHistory> history, boolean rank, FinskaCompetition competition, Map<Integer, Player> players)
+    private void historyChart(Model model, boolean rank)
     {
-        String[] colours =
-        {
-                "red",
-                "blue",
-                "black",
-                "green",
-                "brown",
-                "orange",
-                "teal",
-                "yellow",
-                "maroon",
-                "olive",
-                "lime",
-                "purple",
-                "aqua",
-                "gray"
-        };
-
-        int[] labels = new int[competition.numberOfRounds()];
-        for (int i=0; i<labels.length; i++)
-        {
-            labels[i] = i + 1;
-        }
-        List<Map<String, Object>> datasets = new ArrayList<>();
-        int colourIndex = 0;
-        for (EntrantHistory data : history)
-        {
-            Map<String, Object> dataset = new HashMap<>();
-            dataset.put("fill", false);
-            dataset.put("data", data.getHistory());
-            dataset.put("label", players.get(data.getEntrantID()).getKey());
-            dataset.put("borderColor", colours[colourIndex]);
-            datasets.add(dataset);
-            colourIndex = (colourIndex == (colours.length - 1)) ? 0 : colourIndex + 1;
-        }
+        model.addAttribute("data", mDataService.getCurrentCompetition() != null);
+        model.addAttribute("source", rank ? "/data/history/rank/chart" : "/data/history/points/chart");
         model.addAttribute("yaxis", rank ? "sw.finska.text.rank" : "sw.finska.text.points");
-        model.addAttribute("labels", labels);
-        model.addAttribute("datasets", datasets);
         model.addAttribute("reverse", rank);
+        model.addAttribute(FRAGMENT_FILE_KEY, LEADERBOARD);
+        model.addAttribute(FRAGMENT_NAME_KEY, "historyChart");
     }
 
     /**
-     * Displays the latest player data.
+     * Displays a page of the latest player data.
      * 
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
      * @param model the model to add data to
      * 
      * @return The template name.
-     * 
-     * @throws PersistenceException error loading players
      */
     @GetMapping("/players")
-    public String players(Model model)
-        throws PersistenceException
+    public String players(@RequestParam(name=CURSOR, required=false) String cursor,
+                          @RequestParam(name=LIMIT, required=false) Integer limit,
+                          Model model)
     {
-        Map<Integer, Player> players = mPlayerService.getPlayers();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.players");
-        model.addAttribute(PLAYERS, players);
+        addPage(model, PLAYERS, mDataService.getPlayers(cursor, limit));
         model.addAttribute(FRAGMENT_FILE_KEY, PLAYER);
         model.addAttribute(FRAGMENT_NAME_KEY, PLAYERS);
         return TEMPLATE;
@@ -334,7 +328,7 @@ public class DisplayController extends AbstractController
     public String player(@PathVariable("id") int id, Model model)
         throws PersistenceException
     {
-        Player player = mPlayerService.getPlayer(id);
+        Player player = mDataService.getPlayer(id);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.player");
         model.addAttribute(VIEW_TITLE_ARG_ONE, id);
         model.addAttribute(PLAYER, player);
@@ -344,18 +338,73 @@ public class DisplayController extends AbstractController
     }
 
     /**
-     * Displays the list of competitions.
+     * Displays the specified player's career statistics.
+     * 
+     * @param id the player's ID
+     * @param model the model to add data to
+     * 
+     * @return The template name.
+     * 
+     * @throws PersistenceException error loading data
+     */
+    @GetMapping("/player/{id}/stats")
+    public String playerStatistics(@PathVariable("id") int id, Model model)
+        throws PersistenceException
+    {
+        Player player = mDataService.requirePlayer(id);
+        PlayerStatistics statistics = mDataService.getPlayerStatistics(id);
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.player.stats");
+        model.addAttribute(VIEW_TITLE_ARG_ONE, player.getKey());
+        model.addAttribute(STATISTICS, statistics);
+        model.addAttribute(FRAGMENT_FILE_KEY, PLAYER);
+        model.addAttribute(FRAGMENT_NAME_KEY, STATISTICS);
+        return TEMPLATE;
+    }
+
+    /**
+     * Displays how each pair of players fares in the matches they have
+     * played in together.
+     * 
+     * @param model the model to add data to
+     * 
+     * @return The template name.
+     * 
+     * @throws PersistenceException error loading data
+     */
+    @GetMapping("/headtohead")
+    public String headToHead(Model model)
+        throws PersistenceException
+    {
+        HeadToHeadTable table = mDataService.getHeadToHeadTable();
+        List<Player> players = new ArrayList<>(table.getPlayerIds().length);
+        for (int id : table.getPlayerIds())
+        {
+            players.add(mDataService.requirePlayer(id));
+        }
+        model.addAttribute(VIEW_TITLE, "sw.finska.page.title.headtohead");
+        model.addAttribute(HEAD_TO_HEAD, table);
+        model.addAttribute(PLAYERS, players);
+        model.addAttribute(FRAGMENT_FILE_KEY, PLAYER);
+        model.addAttribute(FRAGMENT_NAME_KEY, HEAD_TO_HEAD);
+        return TEMPLATE;
+    }
+
+    /**
+     * Displays a page of the list of competitions.
      * 
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
      * @param model the model to add data to
      * 
      * @return The template name.
      */
     @GetMapping("/competitions")
-    public String competitions(Model model)
+    public String competitions(@RequestParam(name=CURSOR, required=false) String cursor,
+                               @RequestParam(name=LIMIT, required=false) Integer limit,
+                               Model model)
     {
-        List<FinskaCompetition> competitions = mResultsService.getCompetitions();
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.competitions");
-        model.addAttribute(COMPETITIONS, competitions);
+        addPage(model, COMPETITIONS, mDataService.getCompetitions(cursor, limit));
         model.addAttribute(FRAGMENT_FILE_KEY, COMPETITION);
         model.addAttribute(FRAGMENT_NAME_KEY, COMPETITIONS);
         model.addAttribute(ADMIN, true);
@@ -363,23 +412,26 @@ public class DisplayController extends AbstractController
     }
 
     /**
-     * Displays a specific competition.
+     * Displays a specific competition, with a page of its rounds.
      * 
      * @param id the competition ID
+     * @param cursor the cursor for the page to display (if not the first)
+     * @param limit the most items to display (if not the default)
      * @param model the model to add data to
      * 
      * @return The template name.
      */
     @GetMapping("/competition/{id}")
-    public String competition(@PathVariable("id") int id, Model model)
+    public String competition(@PathVariable("id") int id,
+                              @RequestParam(name=CURSOR, required=false) String cursor,
+                              @RequestParam(name=LIMIT, required=false) Integer limit,
+                              Model model)
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
-        List<FinskaRound> rounds = competition.getRounds();
-        Collections.reverse(rounds); // Most recent round first.
+        CompetitionSnapshot competition = mDataService.requireCompetitionSnapshot(id);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.competition");
         model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
         model.addAttribute(COMPETITION, competition);
-        model.addAttribute(ROUNDS, rounds);
+        addPage(model, ROUNDS, mDataService.getRounds(id, true, cursor, limit));
         model.addAttribute(PLAYERS, competition.getEntrants());
         model.addAttribute(FRAGMENT_FILE_KEY, COMPETITION);
         model.addAttribute(FRAGMENT_NAME_KEY, COMPETITION);
@@ -401,8 +453,8 @@ public class DisplayController extends AbstractController
                         @PathVariable("roundNumber") int roundNumber,
                         Model model)
     {
-        FinskaCompetition competition = mResultsService.getCompetition(id);
-        FinskaRound round = competition.getRound(roundNumber);
+        CompetitionSnapshot competition = mDataService.requireCompetitionSnapshot(id);
+        FinskaRound round = mDataService.requireRound(id, roundNumber);
         model.addAttribute(VIEW_TITLE, "sw.finska.page.title.round");
         model.addAttribute(VIEW_TITLE_ARG_ONE, competition.getKey());
         model.addAttribute(VIEW_TITLE_ARG_TWO, roundNumber);
@@ -413,4 +465,52 @@ public class DisplayController extends AbstractController
         model.addAttribute(FRAGMENT_NAME_KEY, DISPLAY);
         return TEMPLATE;
     }
+
+    /**
+     * Adds the given fragment to the model already rendered, so that the
+     * layout only has to include it. The fragment is rendered from its
+     * own model, which is only populated when the fragment cache does not
+     * hold the fragment for the current data version and locale.
+     * 
+     * @param key identifies the fragment's data
+     * @param file the fragment file
+     * @param fragment the fragment within the file
+     * @param model the model to add the rendered fragment to
+     * @param request the request being answered
+     * @param response the response being rendered
+     * @param populator populates the fragment's model
+     * 
+     * @throws PersistenceException error loading data
+     */
+    private void renderFragment(String key, String file, String fragment, Model model,
+                                HttpServletRequest request, HttpServletResponse response,
+                                ModelPopulator populator)
+        throws PersistenceException
+    {
+        Locale locale = RequestContextUtils.getLocale(request);
+        Computation<String> renderer = () -> {
+            Model fragmentModel = new ExtendedModelMap();
+            populator.populate(fragmentModel);
+            WebContext context = new WebContext(request, response, request.getServletContext(), locale, fragmentModel.asMap());
+            return mTemplateEngine.process("fragments/" + file, Collections.singleton(fragment), context);
+        };
+        model.addAttribute(RENDERED, mFragmentCache.get(key + "/" + locale.toLanguageTag(), mDataService.getDataVersion(), renderer));
+        model.addAttribute(FRAGMENT_FILE_KEY, file);
+        model.addAttribute(FRAGMENT_NAME_KEY, fragment);
+    }
+
+    /**
+     * Populates the model for a fragment.
+     */
+    @FunctionalInterface
+    private interface ModelPopulator
+    {
+        /**
+         * @param model the model to populate
+         *
+         * @throws PersistenceException error loading data
+         */
+        void populate(Model model)
+            throws PersistenceException;
+    }
 }
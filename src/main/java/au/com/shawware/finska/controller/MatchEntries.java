@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.shawware.finska.service.MatchEntry;
+
+/**
+ * The form used to enter several matches of a round at once.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public class MatchEntries
+{
+    /** The submitted matches. */
+    private List<MatchEntry> mMatches;
+
+    /**
+     * Constructs a new, empty form.
+     */
+    public MatchEntries()
+    {
+        mMatches = new ArrayList<>();
+    }
+
+    /**
+     * @return The submitted matches.
+     */
+    public List<MatchEntry> getMatches()
+    {
+        return mMatches;
+    }
+
+    /**
+     * @param matches the submitted matches
+     */
+    public void setMatches(List<MatchEntry> matches)
+    {
+        mMatches = matches;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The locks that keep concurrent reads and writes of the competition
+ * data consistent.
+ *
+ * Each competition is guarded by one of a fixed number of striped
+ * read/write locks, chosen by its ID, so that writes to different
+ * competitions can proceed in parallel and reads only wait for writes
+ * to the same competition. A global read/write lock sits above the
+ * stripes: per-competition reads and writes hold it for reading, while
+ * updates that span competitions (creating a competition and any player
+ * update) hold it for writing and so exclude everything else.
+ *
+ * Locks are always taken global first, then a single stripe, and no
+ * other lock may be waited on while holding them except the monitors of
+ * the caches and journal, which never wait on these locks in turn.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public class CompetitionLocks
+{
+    /** Guards updates that span competitions. */
+    private final ReadWriteLock mGlobal;
+    /** Guards individual competitions. */
+    private final ReadWriteLock[] mStripes;
+
+    /**
+     * Constructs a new set of locks.
+     *
+     * @param stripes the number of per-competition locks
+     */
+    public CompetitionLocks(int stripes)
+    {
+        if (stripes < 1)
+        {
+            throw new IllegalArgumentException("At least one stripe is required: " + stripes); //$NON-NLS-1$
+        }
+        mGlobal  = new ReentrantReadWriteLock();
+        mStripes = new ReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++)
+        {
+            mStripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Performs the given action while no update is being made to the
+     * given competition.
+     *
+     * @param id the competition ID
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    public <T, E extends Exception> T read(int id, Action<T, E> action)
+        throws E
+    {
+        return locked(mGlobal.readLock(), stripe(id).readLock(), action);
+    }
+
+    /**
+     * Performs the given action while no other update is being made to
+     * the given competition and no read of it is in progress.
+     *
+     * @param id the competition ID
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    public <T, E extends Exception> T write(int id, Action<T, E> action)
+        throws E
+    {
+        return locked(mGlobal.readLock(), stripe(id).writeLock(), action);
+    }
+
+    /**
+     * Performs the given action while no update that spans competitions
+     * is being made.
+     *
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    public <T, E extends Exception> T readAll(Action<T, E> action)
+        throws E
+    {
+        return locked(mGlobal.readLock(), null, action);
+    }
+
+    /**
+     * Performs the given action while no other read or update is in
+     * progress.
+     *
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    public <T, E extends Exception> T writeAll(Action<T, E> action)
+        throws E
+    {
+        return locked(mGlobal.writeLock(), null, action);
+    }
+
+    /**
+     * @param id the competition ID
+     *
+     * @return The lock for the given competition.
+     */
+    private ReadWriteLock stripe(int id)
+    {
+        return mStripes[Math.floorMod(id, mStripes.length)];
+    }
+
+    /**
+     * Performs the given action while holding the given locks.
+     *
+     * @param outer the lock to take first
+     * @param inner the lock to take second (if any)
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    private static <T, E extends Exception> T locked(Lock outer, Lock inner, Action<T, E> action)
+        throws E
+    {
+        outer.lock();
+        try
+        {
+            if (inner == null)
+            {
+                return action.perform();
+            }
+            inner.lock();
+            try
+            {
+                return action.perform();
+            }
+            finally
+            {
+                inner.unlock();
+            }
+        }
+        finally
+        {
+            outer.unlock();
+        }
+    }
+
+    /**
+     * An action performed while holding a lock.
+     *
+     * @param <T> the type of the action's result
+     * @param <E> the type of exception the action may throw
+     */
+    @FunctionalInterface
+    public interface Action<T, E extends Exception>
+    {
+        /**
+         * @return The action's result.
+         *
+         * @throws E the action failed
+         */
+        T perform()
+            throws E;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaRound;
+import au.com.shawware.finska.entity.Player;
+
+/**
+ * An immutable view of a competition for readers.
+ *
+ * A snapshot is taken while holding the competition's read lock and is
+ * replaced (never modified) after every write to the competition, so it
+ * can be shared by any number of readers without locking. The rounds
+ * are held in both orders so that readers never need to copy or sort
+ * them. The property names match {@link FinskaCompetition} so that a
+ * snapshot can be rendered in place of a competition.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings("boxing")
+public final class CompetitionSnapshot
+{
+    /** The competition ID. */
+    private final int mId;
+    /** The competition's name. */
+    private final String mKey;
+    /** The competition's start date. */
+    private final LocalDate mStartDate;
+    /** The rounds, oldest first. */
+    private final List<FinskaRound> mRounds;
+    /** The rounds, newest first. */
+    private final List<FinskaRound> mRoundsNewestFirst;
+    /** The rounds, keyed by round number. */
+    private final Map<Integer, FinskaRound> mRoundsByNumber;
+    /** The entrants, keyed by ID. */
+    private final Map<Integer, Player> mEntrantMap;
+    /** The entrants. */
+    private final List<Player> mEntrants;
+    /** The entrants' IDs. */
+    private final Set<Integer> mEntrantIds;
+
+    /**
+     * Takes a snapshot of the given competition. The caller must hold the
+     * competition's read (or write) lock.
+     *
+     * @param competition the competition
+     */
+    public CompetitionSnapshot(FinskaCompetition competition)
+    {
+        mId        = competition.getId();
+        mKey       = competition.getKey();
+        mStartDate = competition.getStartDate();
+
+        List<FinskaRound> rounds = new ArrayList<>(competition.getRounds());
+        Map<Integer, FinskaRound> roundsByNumber = new LinkedHashMap<>();
+        rounds.forEach(round -> roundsByNumber.put(round.getKey(), round));
+        mRounds         = Collections.unmodifiableList(rounds);
+        mRoundsByNumber = Collections.unmodifiableMap(roundsByNumber);
+        List<FinskaRound> reversed = new ArrayList<>(rounds);
+        Collections.reverse(reversed);
+        mRoundsNewestFirst = Collections.unmodifiableList(reversed);
+
+        mEntrantMap = Collections.unmodifiableMap(new LinkedHashMap<>(competition.getEntrantMap()));
+        mEntrants   = Collections.unmodifiableList(new ArrayList<>(competition.getEntrants()));
+        mEntrantIds = Collections.unmodifiableSet(new LinkedHashSet<>(competition.getEntrantIds()));
+    }
+
+    /**
+     * @return The competition ID.
+     */
+    public int getId()
+    {
+        return mId;
+    }
+
+    /**
+     * @return The competition's name.
+     */
+    public String getKey()
+    {
+        return mKey;
+    }
+
+    /**
+     * @return The competition's start date.
+     */
+    public LocalDate getStartDate()
+    {
+        return mStartDate;
+    }
+
+    /**
+     * @return The rounds, oldest first.
+     */
+    public List<FinskaRound> getRounds()
+    {
+        return mRounds;
+    }
+
+    /**
+     * @return The rounds, newest first.
+     */
+    public List<FinskaRound> getRoundsNewestFirst()
+    {
+        return mRoundsNewestFirst;
+    }
+
+    /**
+     * @param roundNumber the round number
+     *
+     * @return The given round (if any).
+     */
+    public FinskaRound getRound(int roundNumber)
+    {
+        return mRoundsByNumber.get(roundNumber);
+    }
+
+    /**
+     * @return The number of rounds.
+     */
+    public int numberOfRounds()
+    {
+        return mRounds.size();
+    }
+
+    /**
+     * @return The entrants, keyed by ID.
+     */
+    public Map<Integer, Player> getEntrantMap()
+    {
+        return mEntrantMap;
+    }
+
+    /**
+     * @return The entrants.
+     */
+    public List<Player> getEntrants()
+    {
+        return mEntrants;
+    }
+
+    /**
+     * @return The entrants' IDs.
+     */
+    public Set<Integer> getEntrantIds()
+    {
+        return mEntrantIds;
+    }
+}
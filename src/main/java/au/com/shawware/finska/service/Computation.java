@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * A computation over the competition data that may need to load data.
+ *
+ * @param <T> the type of data computed
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@FunctionalInterface
+public interface Computation<T>
+{
+    /**
+     * @return The computed data.
+     *
+     * @throws PersistenceException error loading data
+     */
+    T compute()
+        throws PersistenceException;
+}
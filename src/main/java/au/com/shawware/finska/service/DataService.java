@@ -7,11 +7,38 @@
 
 package au.com.shawware.finska.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import au.com.shawware.compadmin.scoring.EntrantHistory;
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaRound;
+import au.com.shawware.finska.entity.Player;
 import au.com.shawware.finska.scoring.ScoringSystem;
 import au.com.shawware.util.persistence.PersistenceException;
 import au.com.shawware.util.persistence.PersistenceFactory;
@@ -19,33 +46,295 @@ import au.com.shawware.util.persistence.PersistenceFactory;
 /**
  * Makes data available in this web application.
  *
+ * All updates should be made through this service (rather than the
+ * underlying services) so that any derived data can be kept current.
+ * Reads that are not served from derived data should also be made
+ * through this service so that they are timed.
+ *
+ * There are two persistence modes. In the default <code>files</code>
+ * mode, updates are written straight to the entity files in the data
+ * directory (match updates via a short-lived journal). In the
+ * <code>eventlog</code> mode, every update is durable once it has been
+ * appended to a retained log, and the entity files are a working copy
+ * brought up to date from the log in the background (see {@link EventLog}).
+ * Only new competitions and rounds, whose keys the repository assigns,
+ * wait for the working copy to be written.
+ *
+ * This service is shared by all request threads. Reads and writes of a
+ * competition hold that competition's read or write lock, so a reader
+ * never sees a partly applied write and writes to different competitions
+ * proceed in parallel; player updates and new competitions exclude all
+ * other access (see {@link CompetitionLocks}). Derived data (leader
+ * boards, encoded responses and rendered fragments) is read without
+ * locking and is replaced, never modified, after each write.
+ *
  * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
  */
 @Service
+@SuppressWarnings({ "nls", "boxing" })
 public class DataService
 {
+    private static final Logger LOG = LoggerFactory.getLogger(DataService.class);
+
+    /** The persistence mode that writes updates straight to the entity files. */
+    private static final String FILES = "files";
+    /** The persistence mode that logs every update before writing it. */
+    private static final String EVENT_LOG = "eventlog";
+
+    /** The most matches that can be entered in a round at once. */
+    public static final int MAX_NEW_MATCHES = 20;
+
     /** Where to get the data from. */
     @Value("${au.com.shawware.finska.datadir}")
     private String mDataDir;
+    /** Whether to retain rendered fragments. */
+    @Value("${au.com.shawware.finska.cache.fragments:false}")
+    private boolean mCacheFragments;
+    /** The number of locks to share between the competitions. */
+    @Value("${au.com.shawware.finska.locks.stripes:16}")
+    private int mLockStripes;
+    /** The most memory (in bytes) the cached leader boards should use. */
+    @Value("${au.com.shawware.finska.cache.leaderboards.budget:16777216}")
+    private long mLeaderBoardBudget;
+    /** Where to journal match updates before they are written. */
+    @Value("${au.com.shawware.finska.journal.file:${au.com.shawware.finska.datadir}/journal.log}")
+    private String mJournalFile;
+    /** How long (in milliseconds) to collect match updates before writing them. */
+    @Value("${au.com.shawware.finska.journal.delay:250}")
+    private long mJournalDelay;
+    /** How updates are persisted: <code>files</code> or <code>eventlog</code>. */
+    @Value("${au.com.shawware.finska.persistence.mode:files}")
+    private String mPersistenceMode;
+    /** Where to keep the event log (in event log mode). */
+    @Value("${au.com.shawware.finska.eventlog.dir:${au.com.shawware.finska.datadir}-eventlog}")
+    private String mEventLogDir;
+    /** How many updates to log between snapshots (in event log mode). */
+    @Value("${au.com.shawware.finska.eventlog.snapshot.interval:100}")
+    private long mSnapshotInterval;
+    /** Where to keep encoded responses across restarts (empty to disable). */
+    @Value("${au.com.shawware.finska.snapshot.file:${au.com.shawware.finska.datadir}-snapshot.bin}")
+    private String mResponseSnapshotFile;
+    /** How long (in milliseconds) after the data changes to save the encoded responses. */
+    @Value("${au.com.shawware.finska.snapshot.delay:60000}")
+    private long mResponseSnapshotDelay;
 
+    /** Publishes leader board updates. */
+    @Autowired
+    private LeaderBoardPublisher mPublisher;
+    /** Holds encoded responses. */
+    @Autowired
+    private ResponseCache mResponseCache;
+    /** Records timings and counts. */
+    @Autowired
+    private ServiceMetrics mMetrics;
+
+    /** The directory holding the data files in use. */
+    private Path mDataPath;
     /** The services factory. */
     private ServiceFactory mServices;
+    /** Holds the computed results. */
+    private ResultsCache mResultsCache;
+    /** Holds rendered fragments. */
+    private FragmentCache mFragmentCache;
+    /** Holds the players' career statistics. */
+    private PlayerStatisticsIndex mPlayerStatistics;
+    /** Holds how each pair of players fares against each other. */
+    private HeadToHeadIndex mHeadToHead;
+    /** All players, rebuilt whenever a player changes. */
+    private volatile PlayerDirectory mPlayerDirectory;
+    /** The journal of match updates not yet written (or the event log). */
+    private WriteJournal mJournal;
+    /** The event log (in event log mode only). */
+    private EventLog mEventLog;
+    /** Keeps concurrent reads and writes consistent. */
+    private CompetitionLocks mLocks;
+    /** The published competition snapshots, keyed by competition ID. */
+    private final ConcurrentMap<Integer, CompetitionSnapshot> mSnapshots;
+    /** The number of the next new match in each round with journalled matches not yet applied. */
+    private final ConcurrentMap<Long, Integer> mNextMatch;
+    /** The version of the data, incremented on every update. */
+    private final AtomicLong mDataVersion;
+    /** When the data was last modified (whole seconds, in milliseconds). */
+    private volatile long mLastModified;
+    /** Saves the encoded responses after the data changes (if enabled). */
+    private ScheduledExecutorService mResponseSnapshotWriter;
+    /** Whether saving the encoded responses is scheduled. */
+    private final AtomicBoolean mResponseSnapshotScheduled;
 
     /**
      * Constructs a new service.
      */
     public DataService()
     {
-        // Nothing to do
+        mDataVersion               = new AtomicLong(0);
+        mNextMatch                 = new ConcurrentHashMap<>();
+        mSnapshots                 = new ConcurrentHashMap<>();
+        mResponseSnapshotScheduled = new AtomicBoolean(false);
     }
 
     @PostConstruct
     private void initialise()
         throws PersistenceException
     {
-        PersistenceFactory factory = PersistenceFactory.getFactory(mDataDir);
-        ScoringSystem scoringSystem = new ScoringSystem(3, 1, 1, 1, 0);
-        mServices = ServiceFactory.getFactory(factory, scoringSystem);
+        String dataDir = mDataDir;
+        Path journalFile = Paths.get(mJournalFile);
+        EventLog.Checkpoint checkpoint = new EventLog.Checkpoint(0, 0);
+        if (EVENT_LOG.equals(mPersistenceMode))
+        {
+            mEventLog = new EventLog(Paths.get(mEventLogDir), mSnapshotInterval);
+            checkpoint = mEventLog.restore(Paths.get(mDataDir));
+            dataDir = mEventLog.getWorkingDirectory().toString();
+            journalFile = mEventLog.getLogFile();
+        }
+        else if (!FILES.equals(mPersistenceMode))
+        {
+            throw new PersistenceException("Unknown persistence mode: " + mPersistenceMode);
+        }
+        mDataPath = Paths.get(dataDir);
+        mLocks = new CompetitionLocks(mLockStripes);
+        PersistenceFactory factory = PersistenceFactory.getFactory(dataDir);
+        mServices = ServiceFactory.getFactory(factory, createScoringSystem());
+        mResultsCache = new ResultsCache(mServices.getResultsService(), mMetrics, mLocks, mLeaderBoardBudget);
+        mFragmentCache = new FragmentCache(mCacheFragments);
+        mPlayerStatistics = new PlayerStatisticsIndex(this, mMetrics);
+        mHeadToHead = new HeadToHeadIndex(this, mMetrics);
+        playersChanged();
+        mMetrics.monitor("leaderboards", mResultsCache, ResultsCache::getLeaderBoardStatistics);
+        mMetrics.monitor("views", mResultsCache, ResultsCache::getViewStatistics);
+        mMetrics.monitor("responses", mResponseCache, ResponseCache::getStatistics);
+        mMetrics.monitor("fragments", mFragmentCache, FragmentCache::getStatistics);
+        mMetrics.gauge("finska.leaderboard.subscribers", mPublisher, LeaderBoardPublisher::getSubscriberCount);
+        mJournal = new WriteJournal(journalFile, mJournalDelay, mEventLog != null, this::applyJournal);
+        int replayed = mJournal.open(checkpoint.getSequence(), checkpoint.getPosition());
+        if (replayed > 0)
+        {
+            LOG.info("Applying " + replayed + " journalled updates");
+            mJournal.flush();
+        }
+        mMetrics.gauge("finska.journal.pending", mJournal, WriteJournal::getPendingCount);
+        mMetrics.gauge("finska.journal.failed", mJournal, WriteJournal::getFailedCount);
+        // Start from the current time so versions are not reused across restarts.
+        mLastModified = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        mDataVersion.set(mLastModified);
+        if (!mResponseSnapshotFile.isEmpty())
+        {
+            mResponseSnapshotWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "finska-snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        loadResponseSnapshot();
+    }
+
+    /**
+     * Writes any journalled updates before the application stops.
+     */
+    @PreDestroy
+    private void shutdown()
+    {
+        if (mResponseSnapshotWriter != null)
+        {
+            mResponseSnapshotWriter.shutdownNow();
+        }
+        mJournal.close();
+        saveResponseSnapshot();
+    }
+
+    /**
+     * Preloads the encoded responses last saved, provided the data has
+     * not changed since. This only warms the response cache: the data is
+     * still loaded from the repository, and anything else derived from it
+     * (such as rendered pages) is still computed when first needed.
+     */
+    private void loadResponseSnapshot()
+    {
+        if (mResponseSnapshotFile.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            Path file = Paths.get(mResponseSnapshotFile);
+            ResponseSnapshot snapshot = ResponseSnapshot.open(file, dataFingerprint());
+            if (snapshot != null)
+            {
+                mResponseCache.preload(snapshot, mDataVersion.get());
+                LOG.info("Preloaded " + snapshot.size() + " responses from " + file);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Unable to check response snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules saving the encoded responses, unless it is already
+     * scheduled. The delay lets the responses for the new data be
+     * requested (and so encoded) before they are saved, and gathers
+     * a burst of changes into a single save.
+     */
+    private void scheduleResponseSnapshot()
+    {
+        if ((mResponseSnapshotWriter != null) && mResponseSnapshotScheduled.compareAndSet(false, true))
+        {
+            mResponseSnapshotWriter.schedule(() -> {
+                mResponseSnapshotScheduled.set(false);
+                saveResponseSnapshot();
+            }, mResponseSnapshotDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the encoded responses for the current data so that they can
+     * be preloaded when the application next starts. This is done when
+     * the application stops and shortly after the data changes, so that
+     * the saved responses survive a crash.
+     */
+    private void saveResponseSnapshot()
+    {
+        if (mResponseSnapshotFile.isEmpty())
+        {
+            return;
+        }
+        Path file = Paths.get(mResponseSnapshotFile);
+        try
+        {
+            // The data files and the responses must match, so neither can change while they are read.
+            Map<String, byte[]> bodies = new LinkedHashMap<>();
+            long fingerprint = mJournal.whileIdle(() -> mLocks.readAll(() -> {
+                bodies.putAll(mResponseCache.getBodies(mDataVersion.get()));
+                return dataFingerprint();
+            }));
+            ResponseSnapshot.write(file, fingerprint, bodies);
+            LOG.info("Saved " + bodies.size() + " responses to " + file);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Unable to save response snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The fingerprint of the data files in use.
+     *
+     * @throws IOException error reading the data directory
+     */
+    private long dataFingerprint()
+        throws IOException
+    {
+        // The journal is emptied whenever it is applied, so it is not part of the data.
+        return ResponseSnapshot.fingerprint(mDataPath, Paths.get(mJournalFile), mJournal.getFailedFile(),
+                                            Paths.get(mResponseSnapshotFile));
+    }
+
+    /**
+     * @return The scoring system used for all competitions.
+     */
+    public static ScoringSystem createScoringSystem()
+    {
+        return new ScoringSystem(3, 1, 1, 1, 0);
     }
 
     /**
@@ -87,4 +376,924 @@ public class DataService
     {
         return mServices.getPlayerService();
     }
+
+    /**
+     * @return The cache of computed results.
+     */
+    public ResultsCache getResultsCache()
+    {
+        return mResultsCache;
+    }
+
+    /**
+     * @return The leader board publisher.
+     */
+    public LeaderBoardPublisher getLeaderBoardPublisher()
+    {
+        return mPublisher;
+    }
+
+    /**
+     * @return The response cache.
+     */
+    public ResponseCache getResponseCache()
+    {
+        return mResponseCache;
+    }
+
+    /**
+     * @return The fragment cache.
+     */
+    public FragmentCache getFragmentCache()
+    {
+        return mFragmentCache;
+    }
+
+    /**
+     * Retrieves all players.
+     *
+     * @return The players, keyed by ID.
+     *
+     * @throws PersistenceException error loading players
+     */
+    public Map<Integer, Player> getPlayers()
+        throws PersistenceException
+    {
+        return mMetrics.time(ServiceMetrics.SERVICE, "players", () -> mLocks.readAll(() -> getPlayerService().getPlayers()));
+    }
+
+    /**
+     * Retrieves the directory of all players. This should be preferred to
+     * {@link #getPlayers()} wherever players are looked up by ID.
+     *
+     * @return The player directory.
+     */
+    public PlayerDirectory getPlayerDirectory()
+    {
+        return mPlayerDirectory;
+    }
+
+    /**
+     * Retrieves the given player from the directory. The player must exist.
+     *
+     * @param id the player ID
+     *
+     * @return The player.
+     *
+     * @throws IllegalArgumentException there is no such player
+     */
+    public Player requirePlayer(int id)
+    {
+        Player player = mPlayerDirectory.get(id);
+        if (player == null)
+        {
+            throw new IllegalArgumentException("No such player: " + id);
+        }
+        return player;
+    }
+
+    /**
+     * Retrieves the given player.
+     *
+     * @param id the player ID
+     *
+     * @return The player.
+     *
+     * @throws PersistenceException error loading player
+     */
+    public Player getPlayer(int id)
+        throws PersistenceException
+    {
+        return mMetrics.time(ServiceMetrics.SERVICE, "player", () -> mLocks.readAll(() -> getPlayerService().getPlayer(id)));
+    }
+
+    /**
+     * Retrieves the given player's career statistics.
+     *
+     * @param id the player ID
+     *
+     * @return The player's statistics.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public PlayerStatistics getPlayerStatistics(int id)
+        throws PersistenceException
+    {
+        requirePlayer(id);
+        return mMetrics.time(ServiceMetrics.SERVICE, "player.stats", () -> mPlayerStatistics.get(id));
+    }
+
+    /**
+     * Retrieves how the given player fares in the matches they have
+     * played in with the given opponent.
+     *
+     * @param id the player ID
+     * @param opponentId the opponent's ID
+     *
+     * @return The head-to-head record.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public HeadToHead getHeadToHead(int id, int opponentId)
+        throws PersistenceException
+    {
+        requirePlayer(id);
+        requirePlayer(opponentId);
+        return mMetrics.time(ServiceMetrics.SERVICE, "headtohead.pair", () -> mHeadToHead.get(id, opponentId));
+    }
+
+    /**
+     * @return The head-to-head records of every pair of players who have played together.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public HeadToHeadTable getHeadToHeadTable()
+        throws PersistenceException
+    {
+        return mMetrics.time(ServiceMetrics.SERVICE, "headtohead", mHeadToHead::table);
+    }
+
+    /**
+     * @return All competitions.
+     */
+    public List<FinskaCompetition> getCompetitions()
+    {
+        return mMetrics.timer(ServiceMetrics.SERVICE, "competitions").record(() -> mLocks.readAll(() -> getResultsService().getCompetitions()));
+    }
+
+    /**
+     * Retrieves a page of players, in ID order.
+     *
+     * @param cursor the cursor returned with the previous page, or <code>null</code> for the first page
+     * @param limit the most players to return, or <code>null</code> for the default
+     *
+     * @return The page of players.
+     */
+    public Page<Player> getPlayers(String cursor, Integer limit)
+    {
+        return mPlayerDirectory.page(cursor, limit);
+    }
+
+    /**
+     * Retrieves a page of competitions, in ID order.
+     *
+     * @param cursor the cursor returned with the previous page, or <code>null</code> for the first page
+     * @param limit the most competitions to return, or <code>null</code> for the default
+     *
+     * @return The page of competitions.
+     */
+    public Page<FinskaCompetition> getCompetitions(String cursor, Integer limit)
+    {
+        return Page.of(getCompetitions(), FinskaCompetition::getId, cursor, limit);
+    }
+
+    /**
+     * Retrieves a page of the given competition's rounds.
+     *
+     * @param id the competition ID
+     * @param newestFirst whether to page through the newest rounds first
+     * @param cursor the cursor returned with the previous page, or <code>null</code> for the first page
+     * @param limit the most rounds to return, or <code>null</code> for the default
+     *
+     * @return The page of rounds.
+     */
+    public Page<FinskaRound> getRounds(int id, boolean newestFirst, String cursor, Integer limit)
+    {
+        CompetitionSnapshot competition = requireCompetitionSnapshot(id);
+        List<FinskaRound> rounds = newestFirst ? competition.getRoundsNewestFirst() : competition.getRounds();
+        return Page.of(rounds, FinskaRound::getKey, cursor, limit);
+    }
+
+    /**
+     * Retrieves the given competition.
+     *
+     * @param id the competition ID
+     *
+     * @return The competition.
+     */
+    public FinskaCompetition getCompetition(int id)
+    {
+        return mMetrics.timer(ServiceMetrics.SERVICE, "competition").record(() -> mLocks.read(id, () -> getResultsService().getCompetition(id)));
+    }
+
+    /**
+     * Retrieves an immutable snapshot of the given competition. This
+     * should be preferred to {@link #getCompetition(int)} by readers, as
+     * it needs no locking and its rounds are already in both orders.
+     *
+     * @param id the competition ID
+     *
+     * @return The snapshot, or <code>null</code> if there is no such competition.
+     */
+    public CompetitionSnapshot getCompetitionSnapshot(int id)
+    {
+        CompetitionSnapshot snapshot = mSnapshots.get(id);
+        if (snapshot != null)
+        {
+            return snapshot;
+        }
+        // Publish while holding the lock so that a snapshot never outlives a write.
+        return mLocks.read(id, () -> {
+            FinskaCompetition competition = getResultsService().getCompetition(id);
+            if (competition == null)
+            {
+                return null;
+            }
+            CompetitionSnapshot taken = new CompetitionSnapshot(competition);
+            mSnapshots.put(id, taken);
+            return taken;
+        });
+    }
+
+    /**
+     * Retrieves an immutable snapshot of the given competition, which must exist.
+     *
+     * @param id the competition ID
+     *
+     * @return The snapshot.
+     *
+     * @throws IllegalArgumentException there is no such competition
+     */
+    public CompetitionSnapshot requireCompetitionSnapshot(int id)
+    {
+        CompetitionSnapshot competition = getCompetitionSnapshot(id);
+        if (competition == null)
+        {
+            throw new IllegalArgumentException("No such competition: " + id);
+        }
+        return competition;
+    }
+
+    /**
+     * Retrieves the given round of the given competition, both of which must exist.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     *
+     * @return The round.
+     *
+     * @throws IllegalArgumentException there is no such competition or round
+     */
+    public FinskaRound requireRound(int id, int roundNumber)
+    {
+        FinskaRound round = requireCompetitionSnapshot(id).getRound(roundNumber);
+        if (round == null)
+        {
+            throw new IllegalArgumentException("Competition " + id + " has no round " + roundNumber);
+        }
+        return round;
+    }
+
+    /**
+     * @return The current competition (if any).
+     */
+    public FinskaCompetition getCurrentCompetition()
+    {
+        return mMetrics.timer(ServiceMetrics.SERVICE, "competition.current").record(() -> mLocks.readAll(() -> getResultsService().getCurrentCompetition()));
+    }
+
+    /**
+     * Builds the chart of the players' rank or points history for the
+     * current competition. Callers should hold on to the result (or its
+     * encoding) until the data version changes.
+     *
+     * @param rank whether to chart rank or points
+     *
+     * @return The chart, or <code>null</code> if there is no current competition.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public HistoryChart getHistoryChart(boolean rank)
+        throws PersistenceException
+    {
+        FinskaCompetition competition = getCurrentCompetition();
+        if (competition == null)
+        {
+            return null;
+        }
+        List<EntrantHistory> history = rank ? mResultsCache.getRankHistory() : mResultsCache.getResultHistory();
+        return HistoryChart.create(history, competition, mPlayerDirectory);
+    }
+
+    /**
+     * @return The current version of the data.
+     */
+    public long getDataVersion()
+    {
+        return mDataVersion.get();
+    }
+
+    /**
+     * @return When the data was last modified.
+     */
+    public long getLastModified()
+    {
+        return mLastModified;
+    }
+
+    /**
+     * Records that the results may have changed and publishes the
+     * current leader board to any subscribers.
+     */
+    private void resultsChanged()
+    {
+        mPublisher.publish(() -> mResultsCache.getLeaderBoard());
+    }
+
+    /**
+     * Rebuilds the player directory after a player has changed.
+     *
+     * @throws PersistenceException error loading players
+     */
+    private void playersChanged()
+        throws PersistenceException
+    {
+        mPlayerDirectory = new PlayerDirectory(getPlayers().values());
+    }
+
+    /**
+     * Records that the data has changed. The last modified time always
+     * advances by at least one second so that it remains usable for
+     * conditional requests, which only have second precision.
+     */
+    private synchronized void dataChanged()
+    {
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        mLastModified = Math.max(now, mLastModified + TimeUnit.SECONDS.toMillis(1));
+        mDataVersion.incrementAndGet();
+        mResponseCache.clear();
+        mFragmentCache.clear();
+        scheduleResponseSnapshot();
+    }
+
+    /**
+     * Creates a new player.
+     *
+     * @param name the new player's name
+     *
+     * @throws PersistenceException error creating player
+     */
+    public void createPlayer(String name)
+        throws PersistenceException
+    {
+        write(JournalEntry.createPlayer(name));
+    }
+
+    /**
+     * Updates an existing player.
+     *
+     * @param id the player ID
+     * @param name the player's updated name
+     *
+     * @throws PersistenceException error updating player
+     */
+    public void updatePlayer(int id, String name)
+        throws PersistenceException
+    {
+        write(JournalEntry.updatePlayer(id, name));
+    }
+
+    /**
+     * Creates a new competition.
+     *
+     * @param name the competition's name
+     * @param startDate the competition's start date
+     * @param players the IDs of the players in the competition
+     *
+     * @return The new competition.
+     *
+     * @throws PersistenceException error creating competition
+     */
+    public FinskaCompetition createCompetition(String name, LocalDate startDate, int[] players)
+        throws PersistenceException
+    {
+        return (FinskaCompetition)write(JournalEntry.createCompetition(name, startDate, players));
+    }
+
+    /**
+     * Updates an existing competition.
+     *
+     * @param id the competition ID
+     * @param name the updated name
+     * @param startDate the updated start date
+     * @param players the updated IDs of the players in the competition
+     *
+     * @throws PersistenceException error updating competition
+     */
+    public void updateCompetition(int id, String name, LocalDate startDate, int[] players)
+        throws PersistenceException
+    {
+        write(JournalEntry.updateCompetition(id, name, startDate, players));
+    }
+
+    /**
+     * Creates a new round in the given competition.
+     *
+     * @param id the competition ID
+     * @param roundDate the round's date
+     * @param players the IDs of the players in the round
+     *
+     * @return The new round.
+     *
+     * @throws PersistenceException error creating round
+     */
+    public FinskaRound createRound(int id, LocalDate roundDate, int[] players)
+        throws PersistenceException
+    {
+        return (FinskaRound)write(JournalEntry.createRound(id, roundDate, players));
+    }
+
+    /**
+     * Updates an existing round.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param roundDate the updated round date
+     * @param players the updated IDs of the players in the round
+     *
+     * @throws PersistenceException error updating round
+     */
+    public void updateRound(int id, int roundNumber, LocalDate roundDate, int[] players)
+        throws PersistenceException
+    {
+        write(JournalEntry.updateRound(id, roundNumber, roundDate, players));
+    }
+
+    /**
+     * Makes the given (non-match) update, after any pending match updates.
+     * In files mode the update is written immediately. In event log mode
+     * the update is logged first; it is then written immediately only if
+     * it creates a competition or round (whose key the caller needs), and
+     * otherwise written in the background like a match update.
+     *
+     * @param entry the update
+     *
+     * @return The created entity (if any).
+     *
+     * @throws PersistenceException error making the update
+     */
+    private Object write(JournalEntry entry)
+        throws PersistenceException
+    {
+        if (mEventLog == null)
+        {
+            // The journal is applied without holding any competition locks (see CompetitionLocks).
+            flushPendingWrites();
+            return locked(entry, () -> {
+                Object result = apply(entry);
+                updated(Collections.singletonList(entry));
+                return result;
+            });
+        }
+        boolean created = (entry.getOperation() == JournalEntry.Operation.CREATE_COMPETITION) ||
+                          (entry.getOperation() == JournalEntry.Operation.CREATE_ROUND);
+        if (!created)
+        {
+            validate(entry);
+            journal(entry);
+            return null;
+        }
+        journal(entry);
+        flushPendingWrites();
+        Exception failure = entry.getFailure();
+        if (failure instanceof PersistenceException)
+        {
+            throw (PersistenceException)failure;
+        }
+        if (failure != null)
+        {
+            throw (RuntimeException)failure;
+        }
+        return entry.getResult();
+    }
+
+    /**
+     * Verifies that the entity the given update changes exists, so that an
+     * update that is logged and written later is not certain to fail.
+     * Entities are never deleted, so no locks are needed. If the entity is
+     * not found, the pending updates (which may create it) are applied and
+     * it is looked for again.
+     *
+     * @param entry the update
+     *
+     * @throws PersistenceException the entity does not exist
+     */
+    private void validate(JournalEntry entry)
+        throws PersistenceException
+    {
+        if (missing(entry) != null)
+        {
+            flushPendingWrites();
+            String missing = missing(entry);
+            if (missing != null)
+            {
+                throw new PersistenceException(missing);
+            }
+        }
+    }
+
+    /**
+     * @param entry an update
+     *
+     * @return A description of the missing entity the given update
+     *         changes, or <code>null</code> if it exists.
+     */
+    private String missing(JournalEntry entry)
+    {
+        CompetitionSnapshot competition;
+        switch (entry.getOperation())
+        {
+            case UPDATE_PLAYER:
+                return (mPlayerDirectory.get(entry.getId()) == null) ? "No such player: " + entry.getId() : null;
+            case UPDATE_COMPETITION:
+                competition = getCompetitionSnapshot(entry.getId());
+                return (competition == null) ? "No such competition: " + entry.getId() : null;
+            case UPDATE_ROUND:
+                competition = getCompetitionSnapshot(entry.getId());
+                return ((competition == null) || (competition.getRound(entry.getRoundNumber()) == null))
+                        ? "Competition " + entry.getId() + " has no round " + entry.getRoundNumber() : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates a new match in the given round. The match is journalled and
+     * then written to the repository shortly afterwards (along with any
+     * other new or updated matches), so it may not be visible immediately.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param winnerIds the IDs of the winning players
+     * @param fastWin whether the winners had a fast win
+     *
+     * @throws PersistenceException error journalling match
+     */
+    public void createMatch(int id, int roundNumber, int[] winnerIds, boolean fastWin)
+        throws PersistenceException
+    {
+        mLocks.write(id, () -> {
+            FinskaRound round = validateRound(id, roundNumber, winnerIds);
+            Long key = key(id, roundNumber);
+            Integer next = mNextMatch.get(key);
+            int matchNumber = (next != null) ? next : round.numberOfMatches() + 1;
+            journal(JournalEntry.createMatch(id, roundNumber, matchNumber, winnerIds, fastWin));
+            mNextMatch.put(key, matchNumber + 1);
+            return null;
+        });
+    }
+
+    /**
+     * Updates an existing match. The update is journalled and then written
+     * to the repository shortly afterwards (along with any other new or
+     * updated matches), so it may not be visible immediately.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param matchNumber the match number
+     * @param winnerIds the updated IDs of the winning players
+     * @param fastWin the updated fast win setting
+     *
+     * @throws PersistenceException error journalling match
+     */
+    public void updateMatch(int id, int roundNumber, int matchNumber, int[] winnerIds, boolean fastWin)
+        throws PersistenceException
+    {
+        mLocks.write(id, () -> {
+            FinskaRound round = validateRound(id, roundNumber, winnerIds);
+            Integer next = mNextMatch.get(key(id, roundNumber));
+            int matches = (next != null) ? next - 1 : round.numberOfMatches();
+            if ((matchNumber < 1) || (matchNumber > matches))
+            {
+                throw new PersistenceException("Round " + roundNumber + " of competition " + id + " has no match " + matchNumber);
+            }
+            journal(JournalEntry.updateMatch(id, roundNumber, matchNumber, winnerIds, fastWin));
+            return null;
+        });
+    }
+
+    /**
+     * Creates several new matches in the given round at once. Every match
+     * is validated before any is recorded, and they are then written to
+     * the repository as a single batch, so the derived data is only
+     * brought up to date once. There must be between one and
+     * {@link #MAX_NEW_MATCHES} matches, and each must have at least one
+     * winner.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param matches the new matches, in order
+     *
+     * @return The numbers of the new matches.
+     *
+     * @throws PersistenceException invalid match or error writing matches
+     */
+    public int[] createMatches(int id, int roundNumber, List<MatchEntry> matches)
+        throws PersistenceException
+    {
+        if ((matches == null) || matches.isEmpty() || (matches.size() > MAX_NEW_MATCHES))
+        {
+            throw new PersistenceException("Between 1 and " + MAX_NEW_MATCHES + " matches must be entered at once");
+        }
+        int[] created = mLocks.write(id, () -> {
+            FinskaRound round = validateRound(id, roundNumber, null);
+            for (int i = 0; i < matches.size(); i++)
+            {
+                MatchEntry match = matches.get(i);
+                if ((match == null) || (match.getWinners() == null) || (match.getWinners().length == 0))
+                {
+                    throw new PersistenceException("New match " + (i + 1) + " has no winners");
+                }
+                validateRound(id, roundNumber, match.getWinners());
+            }
+            Long key = key(id, roundNumber);
+            Integer next = mNextMatch.get(key);
+            int firstMatch = (next != null) ? next : round.numberOfMatches() + 1;
+            int[] matchNumbers = new int[matches.size()];
+            List<JournalEntry> entries = new ArrayList<>(matches.size());
+            for (int i = 0; i < matchNumbers.length; i++)
+            {
+                MatchEntry match = matches.get(i);
+                matchNumbers[i] = firstMatch + i;
+                entries.add(JournalEntry.createMatch(id, roundNumber, matchNumbers[i], match.getWinners(), match.isFastWin()));
+            }
+            mMetrics.time(ServiceMetrics.PERSISTENCE, "journal.append", () -> {
+                mJournal.append(entries);
+                return null;
+            });
+            mNextMatch.put(key, firstMatch + matchNumbers.length);
+            return matchNumbers;
+        });
+        // Write the matches now so that they are applied as one batch.
+        flushPendingWrites();
+        return created;
+    }
+
+    /**
+     * @return The number of journalled updates that could not be applied.
+     */
+    public int getFailedWriteCount()
+    {
+        return mJournal.getFailedCount();
+    }
+
+    /**
+     * @return Where journalled updates that could not be applied are kept.
+     */
+    public Path getFailedWritesFile()
+    {
+        return mJournal.getFailedFile();
+    }
+
+    /**
+     * Applies any journalled match updates to the repository. Callers that
+     * need to see their own match updates must call this first.
+     */
+    public void flushPendingWrites()
+    {
+        mJournal.flush();
+    }
+
+    /**
+     * Checks that the given round exists and that the given winners play in it.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param winnerIds the IDs of the winning players (if any)
+     *
+     * @return The round.
+     *
+     * @throws PersistenceException the round does not exist or a winner is not playing in it
+     */
+    private FinskaRound validateRound(int id, int roundNumber, int[] winnerIds)
+        throws PersistenceException
+    {
+        FinskaCompetition competition = getCompetition(id);
+        FinskaRound round = (competition == null) ? null : competition.getRound(roundNumber);
+        if (round == null)
+        {
+            throw new PersistenceException("Competition " + id + " has no round " + roundNumber);
+        }
+        if (winnerIds != null)
+        {
+            for (int winnerId : winnerIds)
+            {
+                if (!round.getPlayerIds().contains(winnerId))
+                {
+                    throw new PersistenceException("Player " + winnerId + " is not playing in round " + roundNumber + " of competition " + id);
+                }
+            }
+        }
+        return round;
+    }
+
+    /**
+     * Durably records the given update for writing to the repository.
+     *
+     * @param entry the update
+     *
+     * @throws PersistenceException error journalling the update
+     */
+    private void journal(JournalEntry entry)
+        throws PersistenceException
+    {
+        mMetrics.time(ServiceMetrics.PERSISTENCE, "journal.append", () -> {
+            mJournal.append(entry);
+            return null;
+        });
+    }
+
+    /**
+     * Writes a batch of journalled updates to the repository and then
+     * brings the derived data up to date once for the whole batch.
+     *
+     * @param entries the updates
+     */
+    private void applyJournal(List<JournalEntry> entries)
+    {
+        if (mEventLog != null)
+        {
+            mEventLog.applying();
+        }
+        for (JournalEntry entry : entries)
+        {
+            try
+            {
+                locked(entry, () -> apply(entry));
+            }
+            catch (PersistenceException | RuntimeException e)
+            {
+                LOG.error("Unable to apply journalled update [" + entry + "]: " + e.getMessage(), e);
+            }
+        }
+        updated(entries);
+        if (mEventLog != null)
+        {
+            JournalEntry last = entries.get(entries.size() - 1);
+            mEventLog.applied(last.getSequence(), last.getEnd());
+        }
+    }
+
+    /**
+     * Applies a single update to the repository. The caller must hold the
+     * locks for the update.
+     *
+     * @param entry the update
+     *
+     * @return The created entity (if any).
+     *
+     * @throws PersistenceException error applying the update
+     */
+    private Object apply(JournalEntry entry)
+        throws PersistenceException
+    {
+        try
+        {
+            // New matches that are already present are skipped so that the journal can be safely re-applied.
+            return mMetrics.time(ServiceMetrics.PERSISTENCE, entry.getOperation().getKey(), () -> entry.applyTo(mServices));
+        }
+        finally
+        {
+            discardSnapshots(entry);
+            if (entry.getOperation() == JournalEntry.Operation.CREATE_MATCH)
+            {
+                // Once the last new match journalled for a round is applied, the round itself has the next number.
+                mNextMatch.remove(key(entry.getId(), entry.getRoundNumber()), entry.getMatchNumber() + 1);
+            }
+        }
+    }
+
+    /**
+     * Discards the snapshots made stale by the given update. The caller
+     * must hold the locks for the update.
+     *
+     * @param entry the update
+     */
+    private void discardSnapshots(JournalEntry entry)
+    {
+        switch (entry.getOperation())
+        {
+            case CREATE_PLAYER:
+            case CREATE_COMPETITION:
+                break;
+            case UPDATE_PLAYER:
+                // Every competition may hold the player.
+                mSnapshots.clear();
+                break;
+            default:
+                mSnapshots.remove(entry.getId());
+                break;
+        }
+    }
+
+    /**
+     * Performs the given action while holding the locks for the given
+     * update: all competitions for player updates and new competitions,
+     * otherwise just the competition being updated.
+     *
+     * @param entry the update
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws PersistenceException the action failed
+     */
+    private <T> T locked(JournalEntry entry, CompetitionLocks.Action<T, PersistenceException> action)
+        throws PersistenceException
+    {
+        switch (entry.getOperation())
+        {
+            case CREATE_PLAYER:
+            case UPDATE_PLAYER:
+            case CREATE_COMPETITION:
+                return mLocks.writeAll(action);
+            default:
+                return mLocks.write(entry.getId(), action);
+        }
+    }
+
+    /**
+     * Brings the derived data up to date once after a batch of updates.
+     * Updates that failed are ignored.
+     *
+     * @param entries the updates
+     */
+    private void updated(List<JournalEntry> entries)
+    {
+        boolean players = false;
+        boolean current = false;
+        Map<Integer, Integer> changed = new HashMap<>();
+        for (JournalEntry entry : entries)
+        {
+            if (entry.getFailure() != null)
+            {
+                continue;
+            }
+            switch (entry.getOperation())
+            {
+                case CREATE_PLAYER:
+                case UPDATE_PLAYER:
+                    players = true;
+                    break;
+                case CREATE_COMPETITION:
+                    // The new competition may now be the current one.
+                    current = true;
+                    break;
+                case UPDATE_COMPETITION:
+                    changed.merge(entry.getId(), 1, Math::min);
+                    // A new start date may change which competition is current.
+                    current = true;
+                    break;
+                case CREATE_ROUND:
+                    FinskaRound round = (FinskaRound)entry.getResult();
+                    changed.merge(entry.getId(), (round == null) ? 1 : round.getKey(), Math::min);
+                    break;
+                default:
+                    changed.merge(entry.getId(), entry.getRoundNumber(), Math::min);
+                    break;
+            }
+        }
+        if (players)
+        {
+            try
+            {
+                playersChanged();
+            }
+            catch (PersistenceException e)
+            {
+                LOG.error("Unable to reload players: " + e.getMessage(), e);
+            }
+        }
+        changed.forEach(mResultsCache::invalidate);
+        changed.keySet().forEach(mPlayerStatistics::invalidate);
+        changed.forEach(mHeadToHead::invalidate);
+        // Publish the new snapshots now rather than on the next read.
+        changed.keySet().forEach(this::getCompetitionSnapshot);
+        if (current)
+        {
+            mResultsCache.invalidateCurrent();
+            mPlayerStatistics.invalidateCompetitions();
+        }
+        if (players || current || !changed.isEmpty())
+        {
+            dataChanged();
+        }
+        if (current || !changed.isEmpty())
+        {
+            resultsChanged();
+        }
+    }
+
+    /**
+     * Builds the key for the given competition and round.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     *
+     * @return The key.
+     */
+    private static Long key(int id, int roundNumber)
+    {
+        return Long.valueOf(((long)id << 32) | (roundNumber & 0xFFFFFFFFL));
+    }
 }
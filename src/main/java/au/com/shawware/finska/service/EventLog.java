@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.shawware.finska.scoring.ScoringSystem;
+import au.com.shawware.util.persistence.PersistenceException;
+import au.com.shawware.util.persistence.PersistenceFactory;
+
+/**
+ * Manages the files behind the event log persistence mode.
+ *
+ * In this mode every update is appended to a single, retained journal
+ * (the log) and the entity files are only a working copy that can be
+ * rebuilt from it. The log directory holds:
+ * <ul>
+ * <li><code>events.log</code> - every update, in order</li>
+ * <li><code>snapshots/N</code> - copies of the entity files after update N</li>
+ * <li><code>current</code> - the working copy used by the services</li>
+ * <li><code>checkpoint</code> - the last update applied to the working
+ *     copy and where the next one starts in the log</li>
+ * </ul>
+ * An update is durable once it has been appended to the log; the working
+ * copy is brought up to date afterwards, in batches. The checkpoint is
+ * removed while a batch is being applied and rewritten once it has been,
+ * so it is only present while the working copy is consistent. On start-up
+ * the working copy is used as it is if there is a checkpoint, and only the
+ * log after the checkpoint is read. Otherwise (after a crash part way
+ * through a batch) the working copy is restored from the latest snapshot
+ * and the updates after it are replayed.
+ *
+ * A snapshot is taken whenever enough updates have been applied since
+ * the last one. The entity files as they stood at any update can be
+ * rebuilt with {@link #rebuild(Path, long, Path, ScoringSystem)}.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class EventLog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EventLog.class);
+
+    /** The name of the log file. */
+    private static final String LOG_FILE = "events.log";
+    /** The name of the snapshots directory. */
+    private static final String SNAPSHOTS = "snapshots";
+    /** The name of the working copy directory. */
+    private static final String CURRENT = "current";
+    /** The name of the checkpoint file. */
+    private static final String CHECKPOINT = "checkpoint";
+    /** The suffix used while a snapshot or checkpoint is being written. */
+    private static final String PARTIAL = ".partial";
+
+    /** The log directory. */
+    private final Path mDirectory;
+    /** How many updates to apply between snapshots. */
+    private final long mInterval;
+    /** The sequence number of the latest snapshot. */
+    private long mLastSnapshot;
+
+    /**
+     * Constructs a new event log.
+     *
+     * @param directory the log directory
+     * @param interval how many updates to apply between snapshots
+     */
+    public EventLog(Path directory, long interval)
+    {
+        mDirectory    = directory;
+        mInterval     = interval;
+        mLastSnapshot = 0;
+    }
+
+    /**
+     * @return The log file.
+     */
+    public Path getLogFile()
+    {
+        return mDirectory.resolve(LOG_FILE);
+    }
+
+    /**
+     * @return The working copy of the entity files.
+     */
+    public Path getWorkingDirectory()
+    {
+        return mDirectory.resolve(CURRENT);
+    }
+
+    /**
+     * Prepares the working copy. If it was left consistent it is used as
+     * it is; otherwise it is restored from the latest snapshot. The first
+     * time the log is used, the given data directory (if it exists)
+     * becomes the initial snapshot; it is never modified.
+     *
+     * @param initialData the data to start from if there are no snapshots
+     *
+     * @return The last update applied to the working copy. Only later
+     *         updates need to be replayed.
+     *
+     * @throws PersistenceException error restoring the working copy
+     */
+    public synchronized Checkpoint restore(Path initialData)
+        throws PersistenceException
+    {
+        try
+        {
+            Path snapshots = mDirectory.resolve(SNAPSHOTS);
+            Files.createDirectories(snapshots);
+            long sequence = latestSnapshot(mDirectory, Long.MAX_VALUE);
+            Path current = getWorkingDirectory();
+            Checkpoint checkpoint = readCheckpoint();
+            if ((sequence >= 0) && (checkpoint != null) && Files.isDirectory(current))
+            {
+                mLastSnapshot = sequence;
+                LOG.info("Using " + current + " as of update " + checkpoint.getSequence());
+                return checkpoint;
+            }
+            if (sequence < 0)
+            {
+                sequence = 0;
+                Path initial = snapshots.resolve(Long.toString(sequence));
+                if (Files.isDirectory(initialData))
+                {
+                    LOG.info("Taking initial snapshot of " + initialData);
+                    copy(initialData, initial);
+                }
+                else
+                {
+                    Files.createDirectories(initial);
+                }
+            }
+            delete(current);
+            copy(snapshots.resolve(Long.toString(sequence)), current);
+            mLastSnapshot = sequence;
+            LOG.info("Restored snapshot " + sequence + " to " + current);
+            // Where the snapshot's last update ends in the log is not known, so the whole log is read.
+            return new Checkpoint(sequence, 0);
+        }
+        catch (IOException e)
+        {
+            throw new PersistenceException("Unable to restore from " + mDirectory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records that a batch of updates is about to be applied to the
+     * working copy, which is inconsistent until {@link #applied(long, long)}
+     * is called.
+     */
+    public synchronized void applying()
+    {
+        try
+        {
+            Files.deleteIfExists(mDirectory.resolve(CHECKPOINT));
+        }
+        catch (IOException e)
+        {
+            LOG.error("Unable to remove checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Records that all updates up to the given one have been applied to
+     * the working copy, taking a snapshot if one is due. This must not be
+     * called while the working copy is being written.
+     *
+     * @param sequence the sequence number of the last update applied
+     * @param end the offset in the log just after that update
+     */
+    public synchronized void applied(long sequence, long end)
+    {
+        Path partial = mDirectory.resolve(CHECKPOINT + PARTIAL);
+        try
+        {
+            Files.write(partial, (sequence + " " + end + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(partial, mDirectory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            // The working copy is then restored from a snapshot on the next start-up.
+            LOG.error("Unable to write checkpoint " + sequence + ": " + e.getMessage(), e);
+        }
+        if (sequence - mLastSnapshot < mInterval)
+        {
+            return;
+        }
+        Path snapshots = mDirectory.resolve(SNAPSHOTS);
+        Path snapshot = snapshots.resolve(sequence + PARTIAL);
+        try
+        {
+            delete(snapshot);
+            copy(getWorkingDirectory(), snapshot);
+            Files.move(snapshot, snapshots.resolve(Long.toString(sequence)), StandardCopyOption.ATOMIC_MOVE);
+            mLastSnapshot = sequence;
+            LOG.info("Took snapshot " + sequence);
+        }
+        catch (IOException e)
+        {
+            // The log is still complete, so this only slows recovery.
+            LOG.error("Unable to take snapshot " + sequence + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the checkpoint, if there is a valid one.
+     *
+     * @return The checkpoint, or <code>null</code> if there is none.
+     */
+    private Checkpoint readCheckpoint()
+    {
+        Path file = mDirectory.resolve(CHECKPOINT);
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        try
+        {
+            String[] fields = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(" ");
+            long length = Files.exists(getLogFile()) ? Files.size(getLogFile()) : 0;
+            if ((fields.length == 2) && (Long.parseLong(fields[1]) <= length))
+            {
+                return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+            }
+            LOG.warn("Ignoring invalid checkpoint " + file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOG.warn("Ignoring unreadable checkpoint " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds the entity files as they stood after the given update, by
+     * replaying the log over the latest snapshot before that update.
+     *
+     * @param directory the log directory
+     * @param sequence the sequence number of the last update to include
+     * @param target where to write the entity files (must not exist)
+     * @param scoringSystem the scoring system to use
+     *
+     * @return The number of updates replayed.
+     *
+     * @throws PersistenceException error rebuilding the entity files
+     */
+    public static int rebuild(Path directory, long sequence, Path target, ScoringSystem scoringSystem)
+        throws PersistenceException
+    {
+        if (Files.exists(target))
+        {
+            throw new PersistenceException("Target already exists: " + target);
+        }
+        long snapshot = latestSnapshot(directory, sequence);
+        try
+        {
+            if (snapshot < 0)
+            {
+                throw new PersistenceException("No snapshot at or before " + sequence + " in " + directory);
+            }
+            copy(directory.resolve(SNAPSHOTS).resolve(Long.toString(snapshot)), target);
+        }
+        catch (IOException e)
+        {
+            throw new PersistenceException("Unable to copy snapshot " + snapshot + ": " + e.getMessage(), e);
+        }
+        ServiceFactory services = ServiceFactory.getFactory(PersistenceFactory.getFactory(target.toString()), scoringSystem);
+        int replayed = 0;
+        for (JournalEntry entry : WriteJournal.read(directory.resolve(LOG_FILE)))
+        {
+            if ((entry.getSequence() > snapshot) && (entry.getSequence() <= sequence))
+            {
+                try
+                {
+                    entry.applyTo(services);
+                }
+                catch (PersistenceException | RuntimeException e)
+                {
+                    // The same update failed when it was first applied.
+                    LOG.warn("Unable to replay update [" + entry + "]: " + e.getMessage());
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Finds the latest snapshot at or before the given update.
+     *
+     * @param directory the log directory
+     * @param sequence the sequence number of the update
+     *
+     * @return The snapshot's sequence number, or -1 if there is none.
+     *
+     * @throws PersistenceException error reading the snapshots
+     */
+    private static long latestSnapshot(Path directory, long sequence)
+        throws PersistenceException
+    {
+        Path snapshots = directory.resolve(SNAPSHOTS);
+        if (!Files.isDirectory(snapshots))
+        {
+            return -1;
+        }
+        try (Stream<Path> entries = Files.list(snapshots))
+        {
+            return entries.map(path -> path.getFileName().toString())
+                          .filter(name -> name.matches("\\d+"))
+                          .mapToLong(Long::parseLong)
+                          .filter(snapshot -> snapshot <= sequence)
+                          .max()
+                          .orElse(-1);
+        }
+        catch (IOException e)
+        {
+            throw new PersistenceException("Unable to list snapshots in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copies a directory tree.
+     *
+     * @param source the directory to copy
+     * @param target where to copy it to (must not exist)
+     *
+     * @throws IOException error copying files
+     */
+    private static void copy(Path source, Path target)
+        throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(source))
+        {
+            for (Path path : (Iterable<Path>)paths::iterator)
+            {
+                Files.copy(path, target.resolve(source.relativize(path).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory tree (if it exists).
+     *
+     * @param directory the directory to delete
+     *
+     * @throws IOException error deleting files
+     */
+    private static void delete(Path directory)
+        throws IOException
+    {
+        if (!Files.exists(directory))
+        {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * The last update applied to the working copy.
+     */
+    public static final class Checkpoint
+    {
+        /** The sequence number of the last update applied. */
+        private final long mSequence;
+        /** The offset in the log just after that update. */
+        private final long mPosition;
+
+        /**
+         * Constructs a new checkpoint.
+         *
+         * @param sequence the sequence number of the last update applied
+         * @param position the offset in the log just after that update (zero if not known)
+         */
+        Checkpoint(long sequence, long position)
+        {
+            mSequence = sequence;
+            mPosition = position;
+        }
+
+        /**
+         * @return The sequence number of the last update applied.
+         */
+        public long getSequence()
+        {
+            return mSequence;
+        }
+
+        /**
+         * @return The offset in the log just after the last update applied (zero if not known).
+         */
+        public long getPosition()
+        {
+            return mPosition;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Holds fully rendered template fragments so that a page view only needs
+ * to assemble the layout around an already rendered fragment.
+ *
+ * Each fragment is keyed by the caller (typically by view and locale) and
+ * tagged with the data version it was rendered from. A fragment rendered
+ * from an older version is never returned. When disabled, fragments are
+ * rendered on every request, which is preferable while editing templates.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class FragmentCache
+{
+    /** Whether rendered fragments are retained. */
+    private final boolean mEnabled;
+    /** The rendered fragments. */
+    private final ConcurrentMap<String, RenderedFragment> mFragments;
+    /** The number of requests answered from the cache. */
+    private final AtomicLong mHits;
+    /** The number of requests that had to be rendered. */
+    private final AtomicLong mMisses;
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param enabled whether rendered fragments are retained
+     */
+    public FragmentCache(boolean enabled)
+    {
+        mEnabled   = enabled;
+        mFragments = new ConcurrentHashMap<>();
+        mHits      = new AtomicLong(0);
+        mMisses    = new AtomicLong(0);
+    }
+
+    /**
+     * Retrieves the given rendered fragment, rendering it if there is
+     * none for the given version.
+     *
+     * @param key identifies the fragment
+     * @param version the version of the data the fragment must reflect
+     * @param renderer renders the fragment
+     *
+     * @return The rendered fragment.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public String get(String key, long version, Computation<String> renderer)
+        throws PersistenceException
+    {
+        RenderedFragment fragment = mFragments.get(key);
+        if ((fragment != null) && (fragment.mVersion == version))
+        {
+            mHits.incrementAndGet();
+            return fragment.mHtml;
+        }
+        mMisses.incrementAndGet();
+        String html = renderer.compute();
+        if (mEnabled)
+        {
+            mFragments.merge(key, new RenderedFragment(version, html),
+                    (current, latest) -> (current.mVersion > latest.mVersion) ? current : latest);
+        }
+        return html;
+    }
+
+    /**
+     * Discards all rendered fragments.
+     */
+    public void clear()
+    {
+        mFragments.clear();
+    }
+
+    /**
+     * @return The cache statistics.
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", mHits.get());
+        statistics.put("misses", mMisses.get());
+        statistics.put("size", (long)mFragments.size());
+        return statistics;
+    }
+
+    /**
+     * A rendered fragment and the data version it reflects.
+     */
+    private static final class RenderedFragment
+    {
+        /** The data version the fragment reflects. */
+        final long mVersion;
+        /** The rendered fragment. */
+        final String mHtml;
+
+        /**
+         * Constructs a new fragment.
+         *
+         * @param version the data version the fragment reflects
+         * @param html the rendered fragment
+         */
+        RenderedFragment(long version, String html)
+        {
+            mVersion = version;
+            mHtml    = html;
+        }
+    }
+}
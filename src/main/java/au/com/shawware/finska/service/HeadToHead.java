@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+/**
+ * How two players fare in the matches they have both played in.
+ *
+ * Both players can win the same match (as part of the winning team), so
+ * one player's wins are not the other's losses.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public final class HeadToHead
+{
+    /** The player's ID. */
+    private final int mPlayerId;
+    /** The opponent's ID. */
+    private final int mOpponentId;
+    /** The number of matches both have played in. */
+    private final int mMatches;
+    /** The number of those matches the player won. */
+    private final int mWins;
+    /** The number of those matches the opponent won. */
+    private final int mOpponentWins;
+
+    /**
+     * Constructs a new head-to-head record.
+     *
+     * @param playerId the player's ID
+     * @param opponentId the opponent's ID
+     * @param matches the number of matches both have played in
+     * @param wins the number of those matches the player won
+     * @param opponentWins the number of those matches the opponent won
+     */
+    public HeadToHead(int playerId, int opponentId, int matches, int wins, int opponentWins)
+    {
+        mPlayerId     = playerId;
+        mOpponentId   = opponentId;
+        mMatches      = matches;
+        mWins         = wins;
+        mOpponentWins = opponentWins;
+    }
+
+    /**
+     * @return The player's ID.
+     */
+    public int getPlayerId()
+    {
+        return mPlayerId;
+    }
+
+    /**
+     * @return The opponent's ID.
+     */
+    public int getOpponentId()
+    {
+        return mOpponentId;
+    }
+
+    /**
+     * @return The number of matches both have played in.
+     */
+    public int getMatches()
+    {
+        return mMatches;
+    }
+
+    /**
+     * @return The number of those matches the player won.
+     */
+    public int getWins()
+    {
+        return mWins;
+    }
+
+    /**
+     * @return The number of those matches the opponent won.
+     */
+    public int getOpponentWins()
+    {
+        return mOpponentWins;
+    }
+}
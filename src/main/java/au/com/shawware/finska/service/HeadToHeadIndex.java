@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaMatch;
+import au.com.shawware.finska.entity.FinskaRound;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Holds how every pair of players fares in the matches they have both
+ * played in, so that it can be looked up without walking the competitions.
+ *
+ * The counts are held in two dense player by player matrices indexed by
+ * player ID: the matches each pair has played in together and the number
+ * of those the row's player won. Every player in a round plays each of its
+ * matches, so each round's contribution is tallied compactly (the round's
+ * player IDs, their wins and the number of matches). A write only marks
+ * the rounds from the one changed onwards as stale; their tallies are
+ * recomputed on the next lookup and the difference applied to the
+ * matrices, so no other round is visited.
+ *
+ * The matrices are published through a volatile field and never changed
+ * once published. Applying a difference copies only the rows of the
+ * players in the re-tallied rounds and shares the rest with the previous
+ * matrices. Lookups read the published matrices without locking, and
+ * only enter the monitor when a round is stale or the index has not yet
+ * been loaded. A round stays marked as stale until matrices that include
+ * it have been published, so no lookup is answered from out of date
+ * matrices once a write has been recorded. The table of every player's
+ * records is only built when first requested from each set of matrices.
+ *
+ * Marking a round as stale never blocks, so it is safe while holding
+ * competition locks. Recomputing a tally takes the competition locks, so
+ * it must not be done while holding them.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class HeadToHeadIndex
+{
+    /** Supplies the competitions. */
+    private final DataService mDataService;
+    /** Records how long the matrices take to update. */
+    private final ServiceMetrics mMetrics;
+    /** The first stale round of each stale competition, keyed by competition ID. */
+    private final ConcurrentMap<Integer, Stale> mStale;
+    /** Whether every competition must be tallied (before the first lookup). */
+    private volatile boolean mUnloaded;
+    /** The round tallies, keyed by competition ID then round number. Guarded by this index. */
+    private final Map<Integer, NavigableMap<Integer, Tally>> mTallies;
+    /** The published matrices. */
+    private volatile Matrices mPublished;
+
+    /**
+     * Constructs a new, empty index. The matrices are computed when
+     * first requested.
+     *
+     * @param dataService supplies the competitions
+     * @param metrics records how long the matrices take to update
+     */
+    public HeadToHeadIndex(DataService dataService, ServiceMetrics metrics)
+    {
+        mDataService = dataService;
+        mMetrics     = metrics;
+        mStale       = new ConcurrentHashMap<>();
+        mUnloaded    = true;
+        mTallies     = new HashMap<>();
+        mPublished   = new Matrices(new int[0][], new int[0][]);
+    }
+
+    /**
+     * Retrieves how the given player fares against the given opponent,
+     * first bringing the index up to date if any round has changed.
+     *
+     * @param playerId the player's ID
+     * @param opponentId the opponent's ID
+     *
+     * @return The head-to-head record.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public HeadToHead get(int playerId, int opponentId)
+        throws PersistenceException
+    {
+        Matrices matrices = current();
+        if (playerId == opponentId)
+        {
+            return new HeadToHead(playerId, opponentId, 0, 0, 0);
+        }
+        return new HeadToHead(playerId, opponentId, matrices.matches(playerId, opponentId),
+                              matrices.wins(playerId, opponentId), matrices.wins(opponentId, playerId));
+    }
+
+    /**
+     * Retrieves the head-to-head records of every player who has played
+     * a match with another, first bringing the index up to date if any
+     * round has changed.
+     *
+     * @return The table of records.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public HeadToHeadTable table()
+        throws PersistenceException
+    {
+        return current().table();
+    }
+
+    /**
+     * Records that the given competition has changed from the given
+     * round onwards.
+     *
+     * @param id the competition ID
+     * @param fromRound the first round that changed
+     */
+    public void invalidate(int id, int fromRound)
+    {
+        // Always a new marker, so that a refresh can tell whether it has been replaced.
+        mStale.merge(id, new Stale(fromRound), (previous, next) -> new Stale(Math.min(previous.mFromRound, next.mFromRound)));
+    }
+
+    /**
+     * @return The published matrices, first bringing them up to date if
+     *         any round has changed.
+     *
+     * @throws PersistenceException error loading data
+     */
+    private Matrices current()
+        throws PersistenceException
+    {
+        if (mUnloaded || !mStale.isEmpty())
+        {
+            refresh();
+        }
+        return mPublished;
+    }
+
+    /**
+     * Recomputes the stale tallies, applies the differences to a copy of
+     * the matrices and publishes it. The stale markers are only cleared
+     * once the matrices have been published, so concurrent lookups wait
+     * for them rather than reading the previous matrices.
+     *
+     * @throws PersistenceException error loading data
+     */
+    private synchronized void refresh()
+        throws PersistenceException
+    {
+        if (!mUnloaded && mStale.isEmpty())
+        {
+            // Another thread has already brought the index up to date.
+            return;
+        }
+        mMetrics.time(ServiceMetrics.SCORING, "headtohead", () -> {
+            if (mUnloaded)
+            {
+                for (FinskaCompetition competition : mDataService.getCompetitions())
+                {
+                    invalidate(competition.getId(), 1);
+                }
+            }
+            Map<Integer, Stale> stale = new HashMap<>(mStale);
+            // Every stale round is tallied before anything is changed, so a failure leaves the tallies and matrices consistent.
+            Map<Integer, List<Tally>> tallies = new HashMap<>();
+            for (Map.Entry<Integer, Stale> entry : stale.entrySet())
+            {
+                tallies.put(entry.getKey(), tally(entry.getKey(), entry.getValue().mFromRound));
+            }
+            Builder builder = new Builder(mPublished);
+            for (Map.Entry<Integer, Stale> entry : stale.entrySet())
+            {
+                replace(builder, entry.getKey(), entry.getValue().mFromRound, tallies.get(entry.getKey()));
+            }
+            mPublished = builder.build();
+            mUnloaded = false;
+            for (Map.Entry<Integer, Stale> entry : stale.entrySet())
+            {
+                // Only clear the markers that have not been replaced by a change since they were read.
+                mStale.remove(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Tallies the given competition's rounds from the given round onwards.
+     *
+     * @param id the competition ID
+     * @param fromRound the first round to tally
+     *
+     * @return The tallies (none if the competition no longer exists).
+     */
+    private List<Tally> tally(int id, int fromRound)
+    {
+        CompetitionSnapshot competition = mDataService.getCompetitionSnapshot(id);
+        List<Tally> tallies = new ArrayList<>();
+        if (competition != null)
+        {
+            for (FinskaRound round : competition.getRounds())
+            {
+                if (round.getKey() >= fromRound)
+                {
+                    tallies.add(new Tally(round));
+                }
+            }
+        }
+        return tallies;
+    }
+
+    /**
+     * Replaces the tallies of the given competition's rounds from the
+     * given round onwards and applies the differences to the matrices.
+     *
+     * @param builder the matrices being built
+     * @param id the competition ID
+     * @param fromRound the first round replaced
+     * @param tallies the new tallies
+     */
+    private void replace(Builder builder, int id, int fromRound, List<Tally> tallies)
+    {
+        NavigableMap<Integer, Tally> previous = mTallies.computeIfAbsent(id, key -> new TreeMap<>());
+        Iterator<Tally> removed = previous.tailMap(fromRound, true).values().iterator();
+        while (removed.hasNext())
+        {
+            builder.add(removed.next(), -1);
+            removed.remove();
+        }
+        for (Tally tally : tallies)
+        {
+            previous.put(tally.mRoundNumber, tally);
+            builder.add(tally, 1);
+        }
+        if (previous.isEmpty())
+        {
+            mTallies.remove(id);
+        }
+    }
+
+    /**
+     * Marks a competition as stale from a given round onwards. Markers are
+     * compared by identity, as each change records a new one.
+     */
+    private static final class Stale
+    {
+        /** The first stale round. */
+        final int mFromRound;
+
+        /**
+         * Constructs a new marker.
+         *
+         * @param fromRound the first stale round
+         */
+        Stale(int fromRound)
+        {
+            mFromRound = fromRound;
+        }
+    }
+
+    /**
+     * Published matrices, which are never changed. Each row is indexed by
+     * opponent ID; a missing row or a row too short to hold an opponent
+     * means no matches.
+     */
+    private static final class Matrices
+    {
+        /** The matches each player has played in with each opponent, indexed by player ID. */
+        final int[][] mMatches;
+        /** The matches won by the row's player, indexed as for {@link #mMatches}. */
+        final int[][] mWins;
+        /** The records of every player who has played a match with another (built when first requested). */
+        private volatile HeadToHeadTable mTable;
+
+        /**
+         * Publishes the given matrices, which must not be changed afterwards.
+         *
+         * @param matches the matches played together
+         * @param wins the matches won by the row's player
+         */
+        Matrices(int[][] matches, int[][] wins)
+        {
+            mMatches = matches;
+            mWins    = wins;
+            mTable   = null;
+        }
+
+        /**
+         * @param playerId the row's player
+         * @param opponentId the column's player
+         *
+         * @return The matches the two have played in together.
+         */
+        int matches(int playerId, int opponentId)
+        {
+            return cell(mMatches, playerId, opponentId);
+        }
+
+        /**
+         * @param playerId the row's player
+         * @param opponentId the column's player
+         *
+         * @return The matches the row's player won with the opponent playing.
+         */
+        int wins(int playerId, int opponentId)
+        {
+            return cell(mWins, playerId, opponentId);
+        }
+
+        /**
+         * @param matrix the matrix
+         * @param row the row's player
+         * @param column the column's player
+         *
+         * @return The value in the given cell (zero if it is not held).
+         */
+        private static int cell(int[][] matrix, int row, int column)
+        {
+            if ((row < 0) || (column < 0) || (row >= matrix.length) || (matrix[row] == null) || (column >= matrix[row].length))
+            {
+                return 0;
+            }
+            return matrix[row][column];
+        }
+
+        /**
+         * @return The records of every player who has played a match with another.
+         */
+        HeadToHeadTable table()
+        {
+            HeadToHeadTable table = mTable;
+            if (table == null)
+            {
+                // Building the same table twice is harmless, so no locking is needed.
+                table = build();
+                mTable = table;
+            }
+            return table;
+        }
+
+        /**
+         * @return The records of every player who has played a match with another.
+         */
+        private HeadToHeadTable build()
+        {
+            List<Integer> players = new ArrayList<>();
+            for (int playerId = 0; playerId < mMatches.length; playerId++)
+            {
+                int[] row = mMatches[playerId];
+                if ((row != null) && Arrays.stream(row).anyMatch(count -> count > 0))
+                {
+                    players.add(playerId);
+                }
+            }
+            int count = players.size();
+            int[] playerIds = new int[count];
+            int[][] matches = new int[count][count];
+            int[][] wins = new int[count][count];
+            for (int row = 0; row < count; row++)
+            {
+                playerIds[row] = players.get(row);
+                for (int column = 0; column < count; column++)
+                {
+                    matches[row][column] = matches(players.get(row), players.get(column));
+                    wins[row][column] = wins(players.get(row), players.get(column));
+                }
+            }
+            return new HeadToHeadTable(playerIds, matches, wins);
+        }
+    }
+
+    /**
+     * Applies differences to a copy of published matrices. Only the rows
+     * that change are copied; the others are shared.
+     */
+    private static final class Builder
+    {
+        /** The matches played together, indexed by player ID. */
+        private int[][] mMatches;
+        /** The matches won by the row's player, indexed by player ID. */
+        private int[][] mWins;
+        /** The rows already copied from the published matrices. */
+        private final BitSet mCopied;
+
+        /**
+         * Starts from the given matrices.
+         *
+         * @param published the matrices to start from
+         */
+        Builder(Matrices published)
+        {
+            mMatches = published.mMatches.clone();
+            mWins    = published.mWins.clone();
+            mCopied  = new BitSet();
+        }
+
+        /**
+         * Adds the given tally's counts to the matrices.
+         *
+         * @param tally the tally
+         * @param sign 1 to add the counts, -1 to subtract them
+         */
+        void add(Tally tally, int sign)
+        {
+            int size = tally.maxPlayerId() + 1;
+            if (size > mMatches.length)
+            {
+                mMatches = Arrays.copyOf(mMatches, size);
+                mWins    = Arrays.copyOf(mWins, size);
+            }
+            int players = tally.mPlayerIds.length;
+            for (int i = 0; i < players; i++)
+            {
+                int playerId = tally.mPlayerIds[i];
+                int[] matches = writable(mMatches, playerId, size);
+                int[] wins = writable(mWins, playerId, size);
+                mCopied.set(playerId);
+                for (int j = 0; j < players; j++)
+                {
+                    if (i != j)
+                    {
+                        matches[tally.mPlayerIds[j]] += sign * tally.mMatches;
+                        wins[tally.mPlayerIds[j]] += sign * tally.mWins[i];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Ensures the given row is a private copy long enough to hold the given
+         * number of columns.
+         *
+         * @param matrix the matrix
+         * @param row the row's player
+         * @param size the number of columns needed
+         *
+         * @return The row.
+         */
+        private int[] writable(int[][] matrix, int row, int size)
+        {
+            int[] values = matrix[row];
+            if (values == null)
+            {
+                values = new int[size];
+            }
+            else if (!mCopied.get(row) || (values.length < size))
+            {
+                values = Arrays.copyOf(values, Math.max(values.length, size));
+            }
+            matrix[row] = values;
+            return values;
+        }
+
+        /**
+         * @return The new matrices, to be published.
+         */
+        Matrices build()
+        {
+            return new Matrices(mMatches, mWins);
+        }
+    }
+
+    /**
+     * One round's contribution to the matrices.
+     */
+    private static final class Tally
+    {
+        /** The round number. */
+        final int mRoundNumber;
+        /** The IDs of the round's players, in ascending order. */
+        final int[] mPlayerIds;
+        /** The number of matches each player won, parallel to the IDs. */
+        final int[] mWins;
+        /** The number of matches in the round. */
+        final int mMatches;
+
+        /**
+         * Tallies the given round.
+         *
+         * @param round the round
+         */
+        Tally(FinskaRound round)
+        {
+            mRoundNumber = round.getKey();
+            mPlayerIds   = round.getPlayerIds().stream().mapToInt(Integer::intValue).sorted().toArray();
+            mWins        = new int[mPlayerIds.length];
+            mMatches     = round.numberOfMatches();
+            Map<Integer, Integer> positions = new HashMap<>();
+            for (int i = 0; i < mPlayerIds.length; i++)
+            {
+                positions.put(mPlayerIds[i], i);
+            }
+            for (FinskaMatch match : round.getMatches())
+            {
+                for (Integer winnerId : match.getWinnerIds())
+                {
+                    Integer position = positions.get(winnerId);
+                    if (position != null)
+                    {
+                        mWins[position]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The highest player ID involved (-1 if none).
+         */
+        int maxPlayerId()
+        {
+            return (mPlayerIds.length == 0) ? -1 : mPlayerIds[mPlayerIds.length - 1];
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+/**
+ * The head-to-head records of every player who has played a match,
+ * as a table with a row and a column per player (in ID order).
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public final class HeadToHeadTable
+{
+    /** The IDs of the players in the table. */
+    private final int[] mPlayerIds;
+    /** The number of matches each pair of players has played in together. */
+    private final int[][] mMatches;
+    /** The number of those matches the row's player won. */
+    private final int[][] mWins;
+
+    /**
+     * Constructs a new table.
+     *
+     * @param playerIds the IDs of the players in the table
+     * @param matches the number of matches each pair of players has played in together
+     * @param wins the number of those matches the row's player won
+     */
+    public HeadToHeadTable(int[] playerIds, int[][] matches, int[][] wins)
+    {
+        mPlayerIds = playerIds;
+        mMatches   = matches;
+        mWins      = wins;
+    }
+
+    /**
+     * @return The IDs of the players in the table.
+     */
+    public int[] getPlayerIds()
+    {
+        return mPlayerIds;
+    }
+
+    /**
+     * @return The number of matches each pair of players has played in together.
+     */
+    public int[][] getMatches()
+    {
+        return mMatches;
+    }
+
+    /**
+     * @return The number of those matches the row's player won.
+     */
+    public int[][] getWins()
+    {
+        return mWins;
+    }
+}
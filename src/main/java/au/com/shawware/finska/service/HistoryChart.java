@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.List;
+
+import au.com.shawware.compadmin.scoring.EntrantHistory;
+import au.com.shawware.finska.entity.FinskaCompetition;
+
+/**
+ * The data for a players' history chart, in the form consumed by
+ * ChartJS. The chart is built once from the history and then only
+ * read, so it is held in primitive arrays rather than maps.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings("nls")
+public final class HistoryChart
+{
+    /** The colours assigned to players, in turn. */
+    private static final String[] COLOURS =
+    {
+        "red",
+        "blue",
+        "black",
+        "green",
+        "brown",
+        "orange",
+        "teal",
+        "yellow",
+        "maroon",
+        "olive",
+        "lime",
+        "purple",
+        "aqua",
+        "gray"
+    };
+
+    /** The x-axis labels (the round numbers). */
+    private final int[] mLabels;
+    /** One data set per player. */
+    private final Dataset[] mDatasets;
+
+    /**
+     * Constructs a new chart.
+     *
+     * @param labels the x-axis labels
+     * @param datasets the data sets
+     */
+    private HistoryChart(int[] labels, Dataset[] datasets)
+    {
+        mLabels   = labels;
+        mDatasets = datasets;
+    }
+
+    /**
+     * Builds the chart for the given history.
+     *
+     * @param history the players' history
+     * @param competition the competition the history belongs to
+     * @param players the players' data
+     *
+     * @return The chart.
+     */
+    public static HistoryChart create(List<EntrantHistory> history, FinskaCompetition competition, PlayerDirectory players)
+    {
+        int[] labels = new int[competition.numberOfRounds()];
+        for (int i = 0; i < labels.length; i++)
+        {
+            labels[i] = i + 1;
+        }
+        Dataset[] datasets = new Dataset[history.size()];
+        int i = 0;
+        for (EntrantHistory entrant : history)
+        {
+            int[] data = new int[entrant.getHistory().size()];
+            int j = 0;
+            for (Number value : entrant.getHistory())
+            {
+                data[j++] = value.intValue();
+            }
+            datasets[i] = new Dataset(players.get(entrant.getEntrantID()).getKey(), COLOURS[i % COLOURS.length], data);
+            i++;
+        }
+        return new HistoryChart(labels, datasets);
+    }
+
+    /**
+     * @return The x-axis labels.
+     */
+    public int[] getLabels()
+    {
+        return mLabels;
+    }
+
+    /**
+     * @return The data sets.
+     */
+    public Dataset[] getDatasets()
+    {
+        return mDatasets;
+    }
+
+    /**
+     * A single player's line on the chart.
+     */
+    public static final class Dataset
+    {
+        /** The player's name. */
+        private final String mLabel;
+        /** The colour of the player's line. */
+        private final String mBorderColor;
+        /** The player's value after each round. */
+        private final int[] mData;
+
+        /**
+         * Constructs a new data set.
+         *
+         * @param label the player's name
+         * @param borderColor the colour of the player's line
+         * @param data the player's value after each round
+         */
+        Dataset(String label, String borderColor, int[] data)
+        {
+            mLabel       = label;
+            mBorderColor = borderColor;
+            mData        = data;
+        }
+
+        /**
+         * @return The player's name.
+         */
+        public String getLabel()
+        {
+            return mLabel;
+        }
+
+        /**
+         * @return The colour of the player's line.
+         */
+        public String getBorderColor()
+        {
+            return mBorderColor;
+        }
+
+        /**
+         * @return Whether to fill below the line (never).
+         */
+        public boolean getFill()
+        {
+            return false;
+        }
+
+        /**
+         * @return The player's value after each round.
+         */
+        public int[] getData()
+        {
+            return mData;
+        }
+    }
+}
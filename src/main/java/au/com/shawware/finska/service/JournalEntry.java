@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * A single update recorded in a {@link WriteJournal}.
+ *
+ * Each entry records one player, competition, round or match update and
+ * knows how to apply itself through the services. Entries are numbered
+ * in the order they are appended to the journal, and are encoded as a
+ * single line of tab-separated fields.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public final class JournalEntry
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JournalEntry.class);
+
+    /** The field separator in the encoded form. */
+    private static final String SEPARATOR = "\t";
+    /** The encoded form of a missing value. */
+    private static final String NONE = "\\N";
+    /** The number of fields in the encoded form. */
+    private static final int FIELDS = 9;
+
+    /** The entry's position in the journal (zero until appended). */
+    private long mSequence;
+    /** The offset in the journal file just after this entry (zero until appended or read). */
+    private long mEnd;
+    /** The operation to perform. */
+    private final Operation mOperation;
+    /** The player or competition ID. */
+    private final int mId;
+    /** The round number (if any). */
+    private final int mRoundNumber;
+    /** The match number (the expected number for a new match). */
+    private final int mMatchNumber;
+    /** The player or competition name (if any). */
+    private final String mName;
+    /** The competition's start date or the round's date (if any). */
+    private final LocalDate mDate;
+    /** The IDs of the players or winners (if any). */
+    private final int[] mPlayerIds;
+    /** Whether the winners had a fast win. */
+    private final boolean mFastWin;
+    /** The result of applying this entry (if any). */
+    private volatile Object mResult;
+    /** The reason this entry could not be applied (if any). */
+    private volatile Exception mFailure;
+
+    /**
+     * Constructs a new entry.
+     *
+     * @param sequence the entry's position in the journal
+     * @param operation the operation to perform
+     * @param id the player or competition ID
+     * @param roundNumber the round number
+     * @param matchNumber the match number
+     * @param name the player or competition name
+     * @param date the competition's start date or the round's date
+     * @param playerIds the IDs of the players or winners
+     * @param fastWin whether the winners had a fast win
+     */
+    private JournalEntry(long sequence, Operation operation, int id, int roundNumber, int matchNumber,
+                         String name, LocalDate date, int[] playerIds, boolean fastWin)
+    {
+        mSequence    = sequence;
+        mEnd         = 0;
+        mOperation   = operation;
+        mId          = id;
+        mRoundNumber = roundNumber;
+        mMatchNumber = matchNumber;
+        mName        = name;
+        mDate        = date;
+        mPlayerIds   = playerIds;
+        mFastWin     = fastWin;
+        mResult      = null;
+        mFailure     = null;
+    }
+
+    /**
+     * @param name the new player's name
+     *
+     * @return An entry that creates a new player.
+     */
+    public static JournalEntry createPlayer(String name)
+    {
+        return new JournalEntry(0, Operation.CREATE_PLAYER, 0, 0, 0, name, null, null, false);
+    }
+
+    /**
+     * @param id the player ID
+     * @param name the player's updated name
+     *
+     * @return An entry that updates an existing player.
+     */
+    public static JournalEntry updatePlayer(int id, String name)
+    {
+        return new JournalEntry(0, Operation.UPDATE_PLAYER, id, 0, 0, name, null, null, false);
+    }
+
+    /**
+     * @param name the competition's name
+     * @param startDate the competition's start date
+     * @param players the IDs of the players in the competition
+     *
+     * @return An entry that creates a new competition.
+     */
+    public static JournalEntry createCompetition(String name, LocalDate startDate, int[] players)
+    {
+        return new JournalEntry(0, Operation.CREATE_COMPETITION, 0, 0, 0, name, startDate, players, false);
+    }
+
+    /**
+     * @param id the competition ID
+     * @param name the updated name
+     * @param startDate the updated start date
+     * @param players the updated IDs of the players in the competition
+     *
+     * @return An entry that updates an existing competition.
+     */
+    public static JournalEntry updateCompetition(int id, String name, LocalDate startDate, int[] players)
+    {
+        return new JournalEntry(0, Operation.UPDATE_COMPETITION, id, 0, 0, name, startDate, players, false);
+    }
+
+    /**
+     * @param id the competition ID
+     * @param roundDate the round's date
+     * @param players the IDs of the players in the round
+     *
+     * @return An entry that creates a new round.
+     */
+    public static JournalEntry createRound(int id, LocalDate roundDate, int[] players)
+    {
+        return new JournalEntry(0, Operation.CREATE_ROUND, id, 0, 0, null, roundDate, players, false);
+    }
+
+    /**
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param roundDate the updated round date
+     * @param players the updated IDs of the players in the round
+     *
+     * @return An entry that updates an existing round.
+     */
+    public static JournalEntry updateRound(int id, int roundNumber, LocalDate roundDate, int[] players)
+    {
+        return new JournalEntry(0, Operation.UPDATE_ROUND, id, roundNumber, 0, null, roundDate, players, false);
+    }
+
+    /**
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param matchNumber the number the new match is expected to have
+     * @param winnerIds the IDs of the winning players
+     * @param fastWin whether the winners had a fast win
+     *
+     * @return An entry that creates a new match.
+     */
+    public static JournalEntry createMatch(int id, int roundNumber, int matchNumber, int[] winnerIds, boolean fastWin)
+    {
+        return new JournalEntry(0, Operation.CREATE_MATCH, id, roundNumber, matchNumber, null, null, winnerIds, fastWin);
+    }
+
+    /**
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param matchNumber the match number
+     * @param winnerIds the updated IDs of the winning players
+     * @param fastWin the updated fast win setting
+     *
+     * @return An entry that updates an existing match.
+     */
+    public static JournalEntry updateMatch(int id, int roundNumber, int matchNumber, int[] winnerIds, boolean fastWin)
+    {
+        return new JournalEntry(0, Operation.UPDATE_MATCH, id, roundNumber, matchNumber, null, null, winnerIds, fastWin);
+    }
+
+    /**
+     * @return The entry's position in the journal.
+     */
+    public long getSequence()
+    {
+        return mSequence;
+    }
+
+    /**
+     * @param sequence the entry's position in the journal
+     */
+    void setSequence(long sequence)
+    {
+        mSequence = sequence;
+    }
+
+    /**
+     * @return The offset in the journal file just after this entry.
+     */
+    long getEnd()
+    {
+        return mEnd;
+    }
+
+    /**
+     * @param end the offset in the journal file just after this entry
+     */
+    void setEnd(long end)
+    {
+        mEnd = end;
+    }
+
+    /**
+     * @return The operation to perform.
+     */
+    public Operation getOperation()
+    {
+        return mOperation;
+    }
+
+    /**
+     * @return The player or competition ID.
+     */
+    public int getId()
+    {
+        return mId;
+    }
+
+    /**
+     * @return The round number.
+     */
+    public int getRoundNumber()
+    {
+        return mRoundNumber;
+    }
+
+    /**
+     * @return The match number (the expected number for a new match).
+     */
+    public int getMatchNumber()
+    {
+        return mMatchNumber;
+    }
+
+    /**
+     * @return The result of applying this entry (if any).
+     */
+    public Object getResult()
+    {
+        return mResult;
+    }
+
+    /**
+     * @return The reason this entry could not be applied (if any).
+     */
+    public Exception getFailure()
+    {
+        return mFailure;
+    }
+
+    /**
+     * Applies this entry through the given services, recording the outcome.
+     *
+     * @param services the services to apply the entry through
+     *
+     * @return The created or updated entity (if any).
+     *
+     * @throws PersistenceException error applying the entry
+     */
+    public Object applyTo(ServiceFactory services)
+        throws PersistenceException
+    {
+        try
+        {
+            mResult = apply(services);
+            return mResult;
+        }
+        catch (PersistenceException | RuntimeException e)
+        {
+            failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Records that this entry could not be applied.
+     *
+     * @param failure the reason
+     */
+    void failed(Exception failure)
+    {
+        mFailure = failure;
+    }
+
+    /**
+     * Applies this entry through the given services.
+     *
+     * @param services the services to apply the entry through
+     *
+     * @return The created or updated entity (if any).
+     *
+     * @throws PersistenceException error applying the entry
+     */
+    private Object apply(ServiceFactory services)
+        throws PersistenceException
+    {
+        switch (mOperation)
+        {
+            case CREATE_PLAYER:
+                services.getPlayerService().createPlayer(mName);
+                return null;
+            case UPDATE_PLAYER:
+                services.getPlayerService().updatePlayer(mId, mName);
+                return null;
+            case CREATE_COMPETITION:
+                return services.getCompetitionService().createCompetition(mName, mDate, mPlayerIds);
+            case UPDATE_COMPETITION:
+                services.getCompetitionService().updateCompetition(mId, mName, mDate, mPlayerIds);
+                return null;
+            case CREATE_ROUND:
+                return services.getRoundService().createRound(mId, mDate, mPlayerIds);
+            case UPDATE_ROUND:
+                services.getRoundService().updateRound(mId, mRoundNumber, mDate, mPlayerIds);
+                return null;
+            case CREATE_MATCH:
+                // Skip matches that are already present so the journal can be safely re-applied.
+                int matches = services.getResultsService().getCompetition(mId).getRound(mRoundNumber).numberOfMatches();
+                if (matches >= mMatchNumber)
+                {
+                    LOG.info("Skipping journalled match that is already present [" + this + "]");
+                    return null;
+                }
+                if (matches != mMatchNumber - 1)
+                {
+                    LOG.warn("Journalled match will not have its expected number [" + this + "]");
+                }
+                services.getMatchService().createMatch(mId, mRoundNumber, mPlayerIds, mFastWin);
+                return null;
+            case UPDATE_MATCH:
+                services.getMatchService().updateMatch(mId, mRoundNumber, mMatchNumber, mPlayerIds, mFastWin);
+                return null;
+            default:
+                throw new IllegalStateException("Unknown journal operation: " + mOperation);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return encode();
+    }
+
+    /**
+     * @return This entry's encoded form (a single line).
+     */
+    String encode()
+    {
+        String players = (mPlayerIds == null) ? NONE
+                : Arrays.stream(mPlayerIds).mapToObj(Integer::toString).collect(Collectors.joining(","));
+        return String.join(SEPARATOR, Long.toString(mSequence), mOperation.name(), Integer.toString(mId),
+                           Integer.toString(mRoundNumber), Integer.toString(mMatchNumber),
+                           (mName == null) ? NONE : escape(mName),
+                           (mDate == null) ? NONE : mDate.toString(),
+                           players, Boolean.toString(mFastWin));
+    }
+
+    /**
+     * Decodes an entry.
+     *
+     * @param line the encoded form
+     *
+     * @return The entry.
+     *
+     * @throws IllegalArgumentException the line is not a valid entry
+     */
+    static JournalEntry decode(String line)
+    {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != FIELDS)
+        {
+            throw new IllegalArgumentException("Invalid journal entry: " + line);
+        }
+        int[] players = null;
+        if (!fields[7].equals(NONE))
+        {
+            players = fields[7].isEmpty() ? new int[0]
+                    : Arrays.stream(fields[7].split(",")).mapToInt(Integer::parseInt).toArray();
+        }
+        return new JournalEntry(Long.parseLong(fields[0]), Operation.valueOf(fields[1]),
+                                Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                                fields[5].equals(NONE) ? null : unescape(fields[5]),
+                                fields[6].equals(NONE) ? null : LocalDate.parse(fields[6]),
+                                players, Boolean.parseBoolean(fields[8]));
+    }
+
+    /**
+     * Escapes the characters in a name that would break the encoded form.
+     *
+     * @param value the name
+     *
+     * @return The escaped name.
+     */
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Reverses {@link #escape(String)}.
+     *
+     * @param value the escaped name
+     *
+     * @return The name.
+     */
+    private static String unescape(String value)
+    {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if ((c == '\\') && (i + 1 < value.length()))
+            {
+                char next = value.charAt(++i);
+                switch (next)
+                {
+                    case 't':  result.append('\t'); break;
+                    case 'n':  result.append('\n'); break;
+                    case 'r':  result.append('\r'); break;
+                    default:   result.append(next); break;
+                }
+            }
+            else
+            {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * The operations that can be journalled.
+     */
+    public enum Operation
+    {
+        /** Create a new player. */
+        CREATE_PLAYER("player.create"),
+        /** Update an existing player. */
+        UPDATE_PLAYER("player.update"),
+        /** Create a new competition. */
+        CREATE_COMPETITION("competition.create"),
+        /** Update an existing competition. */
+        UPDATE_COMPETITION("competition.update"),
+        /** Create a new round. */
+        CREATE_ROUND("round.create"),
+        /** Update an existing round. */
+        UPDATE_ROUND("round.update"),
+        /** Create a new match. */
+        CREATE_MATCH("match.create"),
+        /** Update an existing match. */
+        UPDATE_MATCH("match.update");
+
+        /** The name used when timing this operation. */
+        private final String mKey;
+
+        /**
+         * Constructs a new operation.
+         *
+         * @param key the name used when timing this operation
+         */
+        Operation(String key)
+        {
+            mKey = key;
+        }
+
+        /**
+         * @return The name used when timing this operation.
+         */
+        public String getKey()
+        {
+            return mKey;
+        }
+    }
+}
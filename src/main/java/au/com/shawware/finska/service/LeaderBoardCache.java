@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.com.shawware.compadmin.scoring.EntrantResult;
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Memoises leader boards so that they are only re-scored when the
+ * underlying competition data changes. A leader board that has to be
+ * computed is scored by the {@link ResultsService} from round 1.
+ *
+ * Leader boards are cached per (competition, round), grouped by
+ * competition. A competition's leader boards are only loaded when they
+ * are first requested, and the least recently used competitions are
+ * evicted once the estimated size of all the leader boards exceeds the
+ * memory budget. The current competition is never evicted, and the
+ * current leader board is cached separately as the current competition
+ * can change. Entries are discarded by {@link #invalidate(int, int)}
+ * when a competition, round or match is written. Concurrent misses for
+ * the same leader board share a single computation.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class LeaderBoardCache
+{
+    /** The estimated size (in bytes) of a leader board, excluding its entries. */
+    private static final long BOARD_BYTES = 64;
+    /** The estimated size (in bytes) of a single leader board entry. */
+    private static final long ENTRY_BYTES = 256;
+
+    /** The service that computes the leader boards. */
+    private final ResultsService mResultsService;
+    /** Records how long the leader boards take to compute. */
+    private final ServiceMetrics mMetrics;
+    /** Keeps the leader boards consistent with concurrent writes. */
+    private final CompetitionLocks mLocks;
+    /** The most memory (in bytes) the leader boards should use. */
+    private final long mBudget;
+    /** The cached leader boards, keyed by competition. */
+    private final ConcurrentMap<Integer, CompetitionLeaderBoards> mCompetitions;
+    /** The cached current leader board (if any). */
+    private volatile CurrentLeaderBoard mCurrent;
+    /** Incremented on every invalidation to detect stale computations. */
+    private final AtomicLong mGeneration;
+    /** Incremented on every access to order the competitions by use. */
+    private final AtomicLong mClock;
+    /** The estimated size (in bytes) of all the cached leader boards. */
+    private volatile long mWeight;
+    /** The number of requests answered from the cache. */
+    private final AtomicLong mHits;
+    /** The number of requests that had to be computed. */
+    private final AtomicLong mMisses;
+    /** The number of competitions whose leader boards have been loaded. */
+    private final AtomicLong mLoads;
+    /** The number of competitions whose leader boards have been evicted. */
+    private final AtomicLong mEvictions;
+    /** Coalesces concurrent computations of the same leader board. */
+    private final SingleFlight<String> mFlights;
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param resultsService the service that computes the leader boards
+     * @param metrics records how long the leader boards take to compute
+     * @param locks keeps the leader boards consistent with concurrent writes
+     * @param budget the most memory (in bytes) the leader boards should use
+     */
+    public LeaderBoardCache(ResultsService resultsService, ServiceMetrics metrics, CompetitionLocks locks, long budget)
+    {
+        mResultsService = resultsService;
+        mMetrics        = metrics;
+        mLocks          = locks;
+        mBudget         = budget;
+        mCompetitions   = new ConcurrentHashMap<>();
+        mCurrent        = null;
+        mGeneration     = new AtomicLong(0);
+        mClock          = new AtomicLong(0);
+        mWeight         = 0;
+        mHits           = new AtomicLong(0);
+        mMisses         = new AtomicLong(0);
+        mLoads          = new AtomicLong(0);
+        mEvictions      = new AtomicLong(0);
+        mFlights        = new SingleFlight<>();
+    }
+
+    /**
+     * Retrieves the leader board for the current competition.
+     *
+     * @return The current leader board.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantResult> getLeaderBoard()
+        throws PersistenceException
+    {
+        CurrentLeaderBoard current = mCurrent;
+        if (current != null)
+        {
+            mHits.incrementAndGet();
+            return current.mLeaderBoard;
+        }
+        mMisses.incrementAndGet();
+        long generation = mGeneration.get();
+        return mFlights.execute("current@" + generation, () -> {
+            FinskaCompetition competition = mLocks.readAll(() -> mResultsService.getCurrentCompetition());
+            List<EntrantResult> leaderBoard = mMetrics.time(ServiceMetrics.SCORING, "leaderboard",
+                    () -> (competition == null) ? mResultsService.getLeaderBoard()
+                                                : mLocks.read(competition.getId(), () -> mResultsService.getLeaderBoard()));
+            if (competition != null)
+            {
+                synchronized (this)
+                {
+                    if (generation == mGeneration.get())
+                    {
+                        mCurrent = new CurrentLeaderBoard(competition.getId(), leaderBoard);
+                    }
+                }
+            }
+            return leaderBoard;
+        });
+    }
+
+    /**
+     * Retrieves the leader board for the given competition after the given round.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     *
+     * @return The leader board.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantResult> getLeaderBoard(int id, int roundNumber)
+        throws PersistenceException
+    {
+        CompetitionLeaderBoards competition = mCompetitions.get(id);
+        List<EntrantResult> leaderBoard = (competition == null) ? null : competition.mRounds.get(roundNumber);
+        if (leaderBoard != null)
+        {
+            competition.mLastUsed = mClock.incrementAndGet();
+            mHits.incrementAndGet();
+            return leaderBoard;
+        }
+        mMisses.incrementAndGet();
+        long generation = mGeneration.get();
+        return mFlights.execute(id + "/" + roundNumber + "@" + generation, () -> {
+            List<EntrantResult> computed = mMetrics.time(ServiceMetrics.SCORING, "leaderboard.round",
+                    () -> mLocks.read(id, () -> mResultsService.getLeaderBoard(id, roundNumber)));
+            FinskaCompetition current = mLocks.readAll(() -> mResultsService.getCurrentCompetition());
+            store(id, roundNumber, computed, generation, (current == null) ? id : current.getId());
+            return computed;
+        });
+    }
+
+    /**
+     * Caches a computed leader board, unless the cache has been invalidated
+     * since the computation started.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     * @param leaderBoard the computed leader board
+     * @param generation the generation the computation started in
+     * @param pinned the ID of the current competition (never evicted)
+     */
+    private synchronized void store(int id, int roundNumber, List<EntrantResult> leaderBoard, long generation, int pinned)
+    {
+        if (generation != mGeneration.get())
+        {
+            return;
+        }
+        CompetitionLeaderBoards competition = mCompetitions.get(id);
+        if (competition == null)
+        {
+            competition = new CompetitionLeaderBoards();
+            mCompetitions.put(id, competition);
+            mLoads.incrementAndGet();
+        }
+        List<EntrantResult> previous = competition.mRounds.put(roundNumber, leaderBoard);
+        long change = weight(leaderBoard) - ((previous == null) ? 0 : weight(previous));
+        competition.mWeight += change;
+        mWeight += change;
+        competition.mLastUsed = mClock.incrementAndGet();
+        evict(id, pinned);
+    }
+
+    /**
+     * Discards the leader boards for the given competition from the given
+     * round onwards. Earlier rounds are unaffected by the change.
+     *
+     * @param id the competition ID
+     * @param fromRound the first round affected by the change
+     */
+    public synchronized void invalidate(int id, int fromRound)
+    {
+        mGeneration.incrementAndGet();
+        CompetitionLeaderBoards competition = mCompetitions.get(id);
+        if (competition != null)
+        {
+            Iterator<Map.Entry<Integer, List<EntrantResult>>> rounds = competition.mRounds.entrySet().iterator();
+            while (rounds.hasNext())
+            {
+                Map.Entry<Integer, List<EntrantResult>> round = rounds.next();
+                if (round.getKey() >= fromRound)
+                {
+                    long weight = weight(round.getValue());
+                    competition.mWeight -= weight;
+                    mWeight -= weight;
+                    rounds.remove();
+                }
+            }
+        }
+        CurrentLeaderBoard current = mCurrent;
+        if ((current != null) && (current.mCompetitionId == id))
+        {
+            mCurrent = null;
+        }
+    }
+
+    /**
+     * Discards the current leader board. This is necessary whenever the
+     * current competition itself may have changed.
+     */
+    public synchronized void invalidateCurrent()
+    {
+        mGeneration.incrementAndGet();
+        mCurrent = null;
+    }
+
+    /**
+     * @return The number of requests answered from the cache.
+     */
+    public long getHits()
+    {
+        return mHits.get();
+    }
+
+    /**
+     * @return The number of requests that had to be computed.
+     */
+    public long getMisses()
+    {
+        return mMisses.get();
+    }
+
+    /**
+     * @return The cache statistics.
+     */
+    public Map<String, Long> getStatistics()
+    {
+        long size = mCompetitions.values().stream().mapToLong(competition -> competition.mRounds.size()).sum();
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", mHits.get());
+        statistics.put("misses", mMisses.get());
+        statistics.put("size", size + ((mCurrent == null) ? 0 : 1));
+        statistics.put("loads", mLoads.get());
+        statistics.put("evictions", mEvictions.get());
+        statistics.put("weight", mWeight);
+        statistics.put("coalesced", mFlights.getCoalesced());
+        return statistics;
+    }
+
+    /**
+     * Evicts the least recently used competitions until the leader boards
+     * fit within the budget. Must be called while holding this cache's lock.
+     *
+     * @param loaded the ID of the competition just loaded (never evicted)
+     * @param pinned the ID of the current competition (never evicted)
+     */
+    private void evict(int loaded, int pinned)
+    {
+        while (mWeight > mBudget)
+        {
+            Map.Entry<Integer, CompetitionLeaderBoards> oldest = null;
+            for (Map.Entry<Integer, CompetitionLeaderBoards> entry : mCompetitions.entrySet())
+            {
+                int id = entry.getKey();
+                if ((id != loaded) && (id != pinned)
+                        && ((oldest == null) || (entry.getValue().mLastUsed < oldest.getValue().mLastUsed)))
+                {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null)
+            {
+                // Only the competitions in use are left.
+                return;
+            }
+            mCompetitions.remove(oldest.getKey());
+            mWeight -= oldest.getValue().mWeight;
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param leaderBoard a leader board
+     *
+     * @return The leader board's estimated size (in bytes).
+     */
+    private static long weight(List<EntrantResult> leaderBoard)
+    {
+        return BOARD_BYTES + leaderBoard.size() * ENTRY_BYTES;
+    }
+
+    /**
+     * The cached leader boards for a single competition.
+     */
+    private static final class CompetitionLeaderBoards
+    {
+        /** The leader boards, keyed by round number. */
+        final ConcurrentMap<Integer, List<EntrantResult>> mRounds;
+        /** The estimated size (in bytes) of the leader boards. */
+        long mWeight;
+        /** When the leader boards were last used. */
+        volatile long mLastUsed;
+
+        /**
+         * Constructs a new, empty entry.
+         */
+        CompetitionLeaderBoards()
+        {
+            mRounds   = new ConcurrentHashMap<>();
+            mWeight   = 0;
+            mLastUsed = 0;
+        }
+    }
+
+    /**
+     * The current leader board and the competition it belongs to.
+     */
+    private static final class CurrentLeaderBoard
+    {
+        /** The ID of the current competition. */
+        final int mCompetitionId;
+        /** The competition's leader board. */
+        final List<EntrantResult> mLeaderBoard;
+
+        /**
+         * Constructs a new entry.
+         *
+         * @param competitionId the ID of the current competition
+         * @param leaderBoard the competition's leader board
+         */
+        CurrentLeaderBoard(int competitionId, List<EntrantResult> leaderBoard)
+        {
+            mCompetitionId = competitionId;
+            mLeaderBoard   = leaderBoard;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import au.com.shawware.compadmin.scoring.EntrantResult;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Pushes the current leader board to subscribed clients using
+ * Server-Sent Events.
+ *
+ * Subscribers are held as asynchronous requests, so an idle subscriber
+ * does not occupy a request thread. Each update is computed and
+ * serialised once, on a single publishing thread, and the same encoded
+ * JSON is then sent to every subscriber. Updates requested while
+ * one is already pending are folded into the pending update.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@Component
+@SuppressWarnings("nls")
+public class LeaderBoardPublisher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderBoardPublisher.class);
+
+    /** The name of the events sent to subscribers. */
+    private static final String EVENT_NAME = "leaderboard";
+    /** How long a subscription lasts before the client must reconnect. */
+    private static final long SUBSCRIPTION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    /** Used to serialise the leader board. */
+    private final ObjectMapper mMapper;
+    /** The current subscribers. */
+    private final Set<SseEmitter> mSubscribers;
+    /** The thread that computes and sends updates. */
+    private final ExecutorService mExecutor;
+    /** Whether an update is waiting to be sent. */
+    private final AtomicBoolean mPending;
+    /** The most recent update (if any) as JSON, sent to new subscribers. */
+    private volatile String mLatest;
+
+    /**
+     * Constructs a new publisher.
+     *
+     * @param mapper used to serialise the leader board
+     */
+    public LeaderBoardPublisher(ObjectMapper mapper)
+    {
+        mMapper      = mapper;
+        mSubscribers = ConcurrentHashMap.newKeySet();
+        mExecutor    = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "finska-leaderboard-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mPending     = new AtomicBoolean(false);
+        mLatest      = null;
+    }
+
+    /**
+     * Subscribes a new client to leader board updates.
+     *
+     * @return The emitter for the new subscriber.
+     */
+    public SseEmitter subscribe()
+    {
+        SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT);
+        emitter.onCompletion(() -> mSubscribers.remove(emitter));
+        emitter.onTimeout(() -> mSubscribers.remove(emitter));
+        emitter.onError(e -> mSubscribers.remove(emitter));
+        mSubscribers.add(emitter);
+        String latest = mLatest;
+        if (latest != null)
+        {
+            send(emitter, latest);
+        }
+        return emitter;
+    }
+
+    /**
+     * @return The number of current subscribers.
+     */
+    public int getSubscriberCount()
+    {
+        return mSubscribers.size();
+    }
+
+    /**
+     * Schedules the given leader board to be sent to all subscribers.
+     * The leader board is computed on the publishing thread, so the
+     * caller is not delayed. Nothing is done if there are no subscribers.
+     *
+     * @param leaderBoard computes the leader board to publish
+     */
+    void publish(Computation<List<EntrantResult>> leaderBoard)
+    {
+        if (mSubscribers.isEmpty())
+        {
+            mLatest = null;
+            return;
+        }
+        if (mPending.compareAndSet(false, true))
+        {
+            mExecutor.execute(() -> {
+                mPending.set(false);
+                try
+                {
+                    String json = mMapper.writeValueAsString(leaderBoard.compute());
+                    mLatest = json;
+                    for (SseEmitter emitter : mSubscribers)
+                    {
+                        send(emitter, json);
+                    }
+                }
+                catch (PersistenceException | JsonProcessingException e)
+                {
+                    LOG.error("Unable to publish leader board: " + e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the given leader board to the given subscriber, dropping the
+     * subscriber if it can no longer be reached.
+     *
+     * @param emitter the subscriber
+     * @param json the serialised leader board
+     */
+    private void send(SseEmitter emitter, String json)
+    {
+        try
+        {
+            emitter.send(SseEmitter.event().name(EVENT_NAME).data(json, MediaType.APPLICATION_JSON));
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            LOG.debug("Dropping leader board subscriber: " + e.getMessage());
+            mSubscribers.remove(emitter);
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * Stops publishing.
+     */
+    @PreDestroy
+    private void shutdown()
+    {
+        mExecutor.shutdownNow();
+        mSubscribers.forEach(SseEmitter::complete);
+        mSubscribers.clear();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+/**
+ * The submitted result of a single match, used when entering several
+ * matches at once. This is bound from both forms and JSON.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public class MatchEntry
+{
+    /** The IDs of the winning players. */
+    private int[] mWinners;
+    /** Whether the winners had a fast win. */
+    private boolean mFastWin;
+
+    /**
+     * Constructs a new, empty entry.
+     */
+    public MatchEntry()
+    {
+        this(new int[0], false);
+    }
+
+    /**
+     * Constructs a new entry.
+     *
+     * @param winners the IDs of the winning players
+     * @param fastWin whether the winners had a fast win
+     */
+    public MatchEntry(int[] winners, boolean fastWin)
+    {
+        mWinners = winners;
+        mFastWin = fastWin;
+    }
+
+    /**
+     * @return The IDs of the winning players.
+     */
+    public int[] getWinners()
+    {
+        return mWinners;
+    }
+
+    /**
+     * @param winners the IDs of the winning players
+     */
+    public void setWinners(int[] winners)
+    {
+        mWinners = (winners == null) ? new int[0] : winners;
+    }
+
+    /**
+     * @return Whether the winners had a fast win.
+     */
+    public boolean isFastWin()
+    {
+        return mFastWin;
+    }
+
+    /**
+     * @param fastWin whether the winners had a fast win
+     */
+    public void setFastWin(boolean fastWin)
+    {
+        mFastWin = fastWin;
+    }
+}
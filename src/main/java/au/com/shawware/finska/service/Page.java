@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * One page of a longer list of items, along with the cursor that
+ * retrieves the next page.
+ *
+ * The cursor is the key (such as the ID) of the last item on the page,
+ * so a page starts straight after the item it names. Unlike an offset,
+ * a cursor still identifies the same position when items are added to
+ * the list between requests.
+ *
+ * @param <T> the type of item paged
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings("nls")
+public final class Page<T>
+{
+    /** The number of items on a page if no limit is given. */
+    public static final int DEFAULT_LIMIT = 50;
+    /** The most items allowed on a page. */
+    public static final int MAX_LIMIT = 500;
+
+    /** The items on this page. */
+    private final List<T> mItems;
+    /** The cursor for the next page, or <code>null</code> if this is the last. */
+    private final String mNextCursor;
+
+    /**
+     * Constructs a new page.
+     *
+     * @param items the items on the page
+     * @param nextCursor the cursor for the next page, or <code>null</code> if this is the last
+     */
+    public Page(List<T> items, String nextCursor)
+    {
+        mItems      = Collections.unmodifiableList(items);
+        mNextCursor = nextCursor;
+    }
+
+    /**
+     * Extracts a page from the given items.
+     *
+     * @param items all the items, in page order
+     * @param key the key that identifies each item
+     * @param cursor the cursor returned with the previous page, or <code>null</code> for the first page
+     * @param limit the most items to return, or <code>null</code> for the default
+     *
+     * @return The page.
+     *
+     * @throws IllegalArgumentException the cursor or limit is invalid
+     */
+    public static <T> Page<T> of(List<T> items, ToIntFunction<? super T> key, String cursor, Integer limit)
+    {
+        int size = limit(limit);
+        int start = 0;
+        if (cursor != null)
+        {
+            int after = parse(cursor);
+            start = -1;
+            for (int i = 0; i < items.size(); i++)
+            {
+                if (key.applyAsInt(items.get(i)) == after)
+                {
+                    start = i + 1;
+                    break;
+                }
+            }
+            if (start < 0)
+            {
+                throw new IllegalArgumentException("Unknown cursor: " + cursor);
+            }
+        }
+        int end = Math.min(items.size(), start + size);
+        String nextCursor = (end < items.size()) ? Integer.toString(key.applyAsInt(items.get(end - 1))) : null;
+        return new Page<>(new ArrayList<>(items.subList(start, end)), nextCursor);
+    }
+
+    /**
+     * @param limit the requested page size (if any)
+     *
+     * @return The page size to use.
+     *
+     * @throws IllegalArgumentException the limit is invalid
+     */
+    private static int limit(Integer limit)
+    {
+        if (limit == null)
+        {
+            return DEFAULT_LIMIT;
+        }
+        if (limit.intValue() < 1)
+        {
+            throw new IllegalArgumentException("Invalid page limit: " + limit);
+        }
+        return Math.min(limit.intValue(), MAX_LIMIT);
+    }
+
+    /**
+     * @param cursor a cursor
+     *
+     * @return The key of the item the cursor names.
+     *
+     * @throws IllegalArgumentException the cursor is invalid
+     */
+    private static int parse(String cursor)
+    {
+        try
+        {
+            return Integer.parseInt(cursor);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * @return The items on this page.
+     */
+    public List<T> getItems()
+    {
+        return mItems;
+    }
+
+    /**
+     * @return The cursor for the next page, or <code>null</code> if this is the last.
+     */
+    public String getNextCursor()
+    {
+        return mNextCursor;
+    }
+}
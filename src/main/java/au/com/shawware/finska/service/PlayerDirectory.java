@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import au.com.shawware.finska.entity.Player;
+
+/**
+ * An immutable directory of all players, indexed directly by player ID.
+ *
+ * Player IDs are allocated sequentially, so the directory is held as an
+ * array rather than a map and looking up a player by ID neither boxes
+ * the ID nor hashes it. A new directory is built whenever a player is
+ * created or updated.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public final class PlayerDirectory implements Iterable<Player>
+{
+    /** The players, indexed by ID (with gaps for unused IDs). */
+    private final Player[] mById;
+    /** The players, in ID order. */
+    private final Player[] mPlayers;
+
+    /**
+     * Constructs a new directory.
+     *
+     * @param players the players to hold
+     */
+    public PlayerDirectory(Collection<Player> players)
+    {
+        int maxId = -1;
+        for (Player player : players)
+        {
+            maxId = Math.max(maxId, player.getId());
+        }
+        mById = new Player[maxId + 1];
+        for (Player player : players)
+        {
+            mById[player.getId()] = player;
+        }
+        mPlayers = Arrays.stream(mById).filter(player -> player != null).toArray(Player[]::new);
+    }
+
+    /**
+     * Retrieves the player with the given ID.
+     *
+     * @param id the player ID
+     *
+     * @return The player or <code>null</code> if there is no such player.
+     */
+    public Player get(int id)
+    {
+        return ((id >= 0) && (id < mById.length)) ? mById[id] : null;
+    }
+
+    /**
+     * @return The number of players.
+     */
+    public int size()
+    {
+        return mPlayers.length;
+    }
+
+    /**
+     * Retrieves a page of players, in ID order.
+     *
+     * @param cursor the cursor returned with the previous page, or <code>null</code> for the first page
+     * @param limit the most players to return, or <code>null</code> for the default
+     *
+     * @return The page of players.
+     */
+    public Page<Player> page(String cursor, Integer limit)
+    {
+        return Page.of(Arrays.asList(mPlayers), Player::getId, cursor, limit);
+    }
+
+    /**
+     * Iterates over the players in ID order.
+     */
+    @Override
+    public Iterator<Player> iterator()
+    {
+        return Arrays.asList(mPlayers).iterator();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+/**
+ * A player's career statistics across all competitions.
+ *
+ * Titles and the best finish only count competitions that have finished,
+ * that is, every competition except the current one.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public final class PlayerStatistics
+{
+    /** The player's ID. */
+    private final int mPlayerId;
+    /** The number of competitions entered. */
+    private final int mCompetitions;
+    /** The number of rounds played. */
+    private final int mRounds;
+    /** The number of matches played. */
+    private final int mMatches;
+    /** The number of matches won. */
+    private final int mWins;
+    /** The number of matches won fast. */
+    private final int mFastWins;
+    /** The number of finished competitions won. */
+    private final int mTitles;
+    /** The best final rank in a finished competition (0 if none). */
+    private final int mBestFinish;
+
+    /**
+     * Constructs a new set of statistics.
+     *
+     * @param playerId the player's ID
+     * @param competitions the number of competitions entered
+     * @param rounds the number of rounds played
+     * @param matches the number of matches played
+     * @param wins the number of matches won
+     * @param fastWins the number of matches won fast
+     * @param titles the number of finished competitions won
+     * @param bestFinish the best final rank in a finished competition (0 if none)
+     */
+    public PlayerStatistics(int playerId, int competitions, int rounds, int matches, int wins, int fastWins, int titles, int bestFinish)
+    {
+        mPlayerId     = playerId;
+        mCompetitions = competitions;
+        mRounds       = rounds;
+        mMatches      = matches;
+        mWins         = wins;
+        mFastWins     = fastWins;
+        mTitles       = titles;
+        mBestFinish   = bestFinish;
+    }
+
+    /**
+     * @return The player's ID.
+     */
+    public int getPlayerId()
+    {
+        return mPlayerId;
+    }
+
+    /**
+     * @return The number of competitions entered.
+     */
+    public int getCompetitions()
+    {
+        return mCompetitions;
+    }
+
+    /**
+     * @return The number of rounds played.
+     */
+    public int getRounds()
+    {
+        return mRounds;
+    }
+
+    /**
+     * @return The number of matches played.
+     */
+    public int getMatches()
+    {
+        return mMatches;
+    }
+
+    /**
+     * @return The number of matches won.
+     */
+    public int getWins()
+    {
+        return mWins;
+    }
+
+    /**
+     * @return The number of matches won fast.
+     */
+    public int getFastWins()
+    {
+        return mFastWins;
+    }
+
+    /**
+     * @return The number of finished competitions won.
+     */
+    public int getTitles()
+    {
+        return mTitles;
+    }
+
+    /**
+     * @return The best final rank in a finished competition (0 if none).
+     */
+    public int getBestFinish()
+    {
+        return mBestFinish;
+    }
+}
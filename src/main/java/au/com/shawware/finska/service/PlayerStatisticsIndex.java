@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import au.com.shawware.compadmin.scoring.EntrantResult;
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaMatch;
+import au.com.shawware.finska.entity.FinskaRound;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Holds every player's career statistics so that they can be looked up
+ * without walking the competitions.
+ *
+ * Each competition's contribution is tallied separately and compactly
+ * (parallel arrays of player IDs and counts), and the counts are summed
+ * into a single array indexed by player ID. A write to a competition
+ * only marks it as stale; its tally is recomputed on the next lookup and
+ * the difference applied to the sums, so the other competitions are not
+ * visited. The titles and best finishes are re-aggregated from the
+ * tallies' final ranks, as they cannot be maintained by difference.
+ *
+ * Every player in a round plays each of its matches. The final ranks
+ * come from the leader board after each competition's last round.
+ *
+ * The totals are published through a volatile field and read without
+ * locking. A change stays marked until totals that include it have been
+ * published, so lookups wait for the refresh rather than reading the
+ * previous totals. Each change records a new marker, compared by
+ * identity, so that one made during a refresh is not cleared by it.
+ *
+ * Marking a competition as stale never blocks, so it is safe while
+ * holding competition locks. Recomputing a tally takes the competition
+ * locks, so it must not be done while holding them.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class PlayerStatisticsIndex
+{
+    /** The index of the number of competitions entered. */
+    private static final int COMPETITIONS = 0;
+    /** The index of the number of rounds played. */
+    private static final int ROUNDS = 1;
+    /** The index of the number of matches played. */
+    private static final int MATCHES = 2;
+    /** The index of the number of matches won. */
+    private static final int WINS = 3;
+    /** The index of the number of matches won fast. */
+    private static final int FAST_WINS = 4;
+    /** The number of counts that are summed across competitions. */
+    private static final int SUMMED = 5;
+    /** The index of the final rank within a tally. */
+    private static final int RANK = 5;
+    /** The number of values held per player in a tally. */
+    private static final int TALLY_FIELDS = 6;
+    /** The index of the number of titles within the totals. */
+    private static final int TITLES = 5;
+    /** The index of the best finish within the totals. */
+    private static final int BEST_FINISH = 6;
+    /** The number of values held per player in the totals. */
+    private static final int TOTAL_FIELDS = 7;
+
+    /** Supplies the competitions and their leader boards. */
+    private final DataService mDataService;
+    /** Records how long the statistics take to compute. */
+    private final ServiceMetrics mMetrics;
+    /** The markers of the competitions whose tallies are stale, keyed by competition ID. */
+    private final ConcurrentMap<Integer, Object> mStale;
+    /** The marker of the latest change to the competitions or the current competition (<code>null</code> if none). */
+    private final AtomicReference<Object> mCompetitionsStale;
+    /** The tallies, keyed by competition ID. Guarded by this index. */
+    private final Map<Integer, Tally> mTallies;
+    /** The summed counts, indexed by player ID. Guarded by this index. */
+    private int[] mSums;
+    /** The published totals, indexed by player ID. */
+    private volatile int[] mTotals;
+
+    /**
+     * Constructs a new, empty index. The statistics are computed when
+     * first requested.
+     *
+     * @param dataService supplies the competitions and their leader boards
+     * @param metrics records how long the statistics take to compute
+     */
+    public PlayerStatisticsIndex(DataService dataService, ServiceMetrics metrics)
+    {
+        mDataService       = dataService;
+        mMetrics           = metrics;
+        mStale             = new ConcurrentHashMap<>();
+        mCompetitionsStale = new AtomicReference<>(new Object());
+        mTallies           = new HashMap<>();
+        mSums              = new int[0];
+        mTotals            = new int[0];
+    }
+
+    /**
+     * Retrieves the given player's career statistics, first bringing the
+     * index up to date if any competition has changed.
+     *
+     * @param playerId the player's ID
+     *
+     * @return The player's statistics.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public PlayerStatistics get(int playerId)
+        throws PersistenceException
+    {
+        if (isStale())
+        {
+            refresh();
+        }
+        int[] totals = mTotals;
+        int base = playerId * TOTAL_FIELDS;
+        if ((playerId < 0) || (base >= totals.length))
+        {
+            return new PlayerStatistics(playerId, 0, 0, 0, 0, 0, 0, 0);
+        }
+        return new PlayerStatistics(playerId, totals[base + COMPETITIONS], totals[base + ROUNDS], totals[base + MATCHES],
+                                    totals[base + WINS], totals[base + FAST_WINS], totals[base + TITLES],
+                                    totals[base + BEST_FINISH]);
+    }
+
+    /**
+     * Records that the given competition has changed.
+     *
+     * @param id the competition ID
+     */
+    public void invalidate(int id)
+    {
+        mStale.put(id, new Object());
+    }
+
+    /**
+     * Records that a competition may have been added or that the current
+     * competition may have changed.
+     */
+    public void invalidateCompetitions()
+    {
+        mCompetitionsStale.set(new Object());
+    }
+
+    /**
+     * @return Whether any change has not yet been included in the published totals.
+     */
+    private boolean isStale()
+    {
+        return (mCompetitionsStale.get() != null) || !mStale.isEmpty();
+    }
+
+    /**
+     * Recomputes the stale tallies and publishes the new totals. The
+     * markers are only cleared once the totals have been published, so
+     * concurrent lookups wait for them rather than reading the previous
+     * totals.
+     *
+     * @throws PersistenceException error loading data
+     */
+    private synchronized void refresh()
+        throws PersistenceException
+    {
+        if (!isStale())
+        {
+            // Another thread has already brought the index up to date.
+            return;
+        }
+        mMetrics.time(ServiceMetrics.SCORING, "playerstats", () -> {
+            Object competitionsChange = mCompetitionsStale.get();
+            FinskaCompetition current = mDataService.getCurrentCompetition();
+            for (FinskaCompetition competition : mDataService.getCompetitions())
+            {
+                if (!mTallies.containsKey(competition.getId()))
+                {
+                    mStale.putIfAbsent(competition.getId(), new Object());
+                }
+            }
+            // A failure part way through leaves the sums matching the tallies; the markers are kept so they are retried.
+            Map<Integer, Object> stale = new HashMap<>(mStale);
+            for (Integer id : stale.keySet())
+            {
+                replace(id, tally(id));
+            }
+            publish((current == null) ? -1 : current.getId());
+            // Only clear the markers that have not been replaced by a change since they were read.
+            stale.forEach(mStale::remove);
+            mCompetitionsStale.compareAndSet(competitionsChange, null);
+            return null;
+        });
+    }
+
+    /**
+     * Tallies the given competition.
+     *
+     * @param id the competition ID
+     *
+     * @return The tally, or <code>null</code> if there is no such competition.
+     *
+     * @throws PersistenceException error loading data
+     */
+    private Tally tally(int id)
+        throws PersistenceException
+    {
+        CompetitionSnapshot competition = mDataService.getCompetitionSnapshot(id);
+        if (competition == null)
+        {
+            return null;
+        }
+        Map<Integer, int[]> players = new TreeMap<>();
+        competition.getEntrantIds().forEach(playerId -> players.computeIfAbsent(playerId, key -> new int[TALLY_FIELDS]));
+        for (FinskaRound round : competition.getRounds())
+        {
+            int matches = round.numberOfMatches();
+            for (Integer playerId : round.getPlayerIds())
+            {
+                int[] counts = players.computeIfAbsent(playerId, key -> new int[TALLY_FIELDS]);
+                counts[ROUNDS]++;
+                counts[MATCHES] += matches;
+            }
+            for (FinskaMatch match : round.getMatches())
+            {
+                for (Integer winnerId : match.getWinnerIds())
+                {
+                    int[] counts = players.computeIfAbsent(winnerId, key -> new int[TALLY_FIELDS]);
+                    counts[WINS]++;
+                    if (match.isFastWin())
+                    {
+                        counts[FAST_WINS]++;
+                    }
+                }
+            }
+        }
+        int rounds = competition.numberOfRounds();
+        if (rounds > 0)
+        {
+            int lastRound = competition.getRounds().get(rounds - 1).getKey();
+            for (EntrantResult result : mDataService.getResultsCache().getLeaderBoard(id, lastRound))
+            {
+                players.computeIfAbsent(result.getEntrantID(), key -> new int[TALLY_FIELDS])[RANK] = result.getRank();
+            }
+        }
+        players.values().forEach(counts -> counts[COMPETITIONS] = 1);
+        return new Tally(players);
+    }
+
+    /**
+     * Replaces a competition's tally and applies the difference to the sums.
+     *
+     * @param id the competition ID
+     * @param tally the new tally (<code>null</code> if the competition no longer exists)
+     */
+    private void replace(int id, Tally tally)
+    {
+        Tally previous = (tally == null) ? mTallies.remove(id) : mTallies.put(id, tally);
+        add(previous, -1);
+        add(tally, 1);
+    }
+
+    /**
+     * Adds the given tally's counts to the sums.
+     *
+     * @param tally the tally (if any)
+     * @param sign 1 to add the counts, -1 to subtract them
+     */
+    private void add(Tally tally, int sign)
+    {
+        if (tally == null)
+        {
+            return;
+        }
+        int length = (tally.maxPlayerId() + 1) * SUMMED;
+        if (length > mSums.length)
+        {
+            mSums = Arrays.copyOf(mSums, length);
+        }
+        for (int i = 0; i < tally.mPlayerIds.length; i++)
+        {
+            int sum = tally.mPlayerIds[i] * SUMMED;
+            int count = i * TALLY_FIELDS;
+            for (int field = 0; field < SUMMED; field++)
+            {
+                mSums[sum + field] += sign * tally.mCounts[count + field];
+            }
+        }
+    }
+
+    /**
+     * Publishes the totals: the sums plus the titles and best finishes
+     * in the finished competitions.
+     *
+     * @param currentId the ID of the current competition (-1 if none)
+     */
+    private void publish(int currentId)
+    {
+        int players = mSums.length / SUMMED;
+        int[] totals = new int[players * TOTAL_FIELDS];
+        for (int playerId = 0; playerId < players; playerId++)
+        {
+            System.arraycopy(mSums, playerId * SUMMED, totals, playerId * TOTAL_FIELDS, SUMMED);
+        }
+        mTallies.forEach((id, tally) -> {
+            if (id == currentId)
+            {
+                return;
+            }
+            for (int i = 0; i < tally.mPlayerIds.length; i++)
+            {
+                int rank = tally.mCounts[i * TALLY_FIELDS + RANK];
+                int total = tally.mPlayerIds[i] * TOTAL_FIELDS;
+                if (rank == 1)
+                {
+                    totals[total + TITLES]++;
+                }
+                if ((rank > 0) && ((totals[total + BEST_FINISH] == 0) || (rank < totals[total + BEST_FINISH])))
+                {
+                    totals[total + BEST_FINISH] = rank;
+                }
+            }
+        });
+        mTotals = totals;
+    }
+
+    /**
+     * One competition's contribution to the players' statistics.
+     */
+    private static final class Tally
+    {
+        /** The IDs of the players involved, in ascending order. */
+        final int[] mPlayerIds;
+        /** The players' counts, {@link #TALLY_FIELDS} per player. */
+        final int[] mCounts;
+
+        /**
+         * Constructs a new tally.
+         *
+         * @param players the counts, keyed by player ID in ascending order
+         */
+        Tally(Map<Integer, int[]> players)
+        {
+            mPlayerIds = new int[players.size()];
+            mCounts    = new int[players.size() * TALLY_FIELDS];
+            int i = 0;
+            for (Map.Entry<Integer, int[]> player : players.entrySet())
+            {
+                mPlayerIds[i] = player.getKey();
+                System.arraycopy(player.getValue(), 0, mCounts, i * TALLY_FIELDS, TALLY_FIELDS);
+                i++;
+            }
+        }
+
+        /**
+         * @return The highest player ID involved (-1 if none).
+         */
+        int maxPlayerId()
+        {
+            return (mPlayerIds.length == 0) ? -1 : mPlayerIds[mPlayerIds.length - 1];
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Holds already-encoded response bodies so that hot payloads are only
+ * serialised once per version of the data.
+ *
+ * Each body is keyed by its end point and tagged with the data version
+ * it was computed from. A body for an older version is never returned.
+ * The compressed form of a body is only produced when first requested.
+ * Bodies can also be preloaded from a {@link ResponseSnapshot}, in which
+ * case each is only read from the snapshot when first requested.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@Component
+@SuppressWarnings({ "nls", "boxing" })
+public class ResponseCache
+{
+    /** Used to serialise the payloads. */
+    private final ObjectMapper mMapper;
+    /** The cached responses, keyed by end point. */
+    private final ConcurrentMap<String, CachedResponse> mResponses;
+    /** The number of requests answered from the cache. */
+    private final AtomicLong mHits;
+    /** The number of requests that had to be serialised. */
+    private final AtomicLong mMisses;
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param mapper used to serialise the payloads
+     */
+    public ResponseCache(ObjectMapper mapper)
+    {
+        mMapper    = mapper;
+        mResponses = new ConcurrentHashMap<>();
+        mHits      = new AtomicLong(0);
+        mMisses    = new AtomicLong(0);
+    }
+
+    /**
+     * Retrieves the encoded response for the given end point, computing
+     * and serialising the payload if there is none for the given version.
+     *
+     * @param key identifies the end point
+     * @param version the version of the data the response must reflect
+     * @param payload computes the payload to be serialised
+     *
+     * @return The encoded response.
+     *
+     * @throws PersistenceException error loading data
+     * @throws IOException error serialising the payload
+     */
+    public CachedResponse get(String key, long version, Computation<?> payload)
+        throws PersistenceException, IOException
+    {
+        CachedResponse response = mResponses.get(key);
+        if ((response != null) && (response.mVersion == version))
+        {
+            mHits.incrementAndGet();
+            return response;
+        }
+        mMisses.incrementAndGet();
+        response = new CachedResponse(version, mMapper.writeValueAsBytes(payload.compute()));
+        mResponses.merge(key, response, (current, latest) -> (current.mVersion > latest.mVersion) ? current : latest);
+        return response;
+    }
+
+    /**
+     * Preloads the bodies in the given snapshot for the given version.
+     * They are discarded as usual when the data changes.
+     *
+     * @param snapshot the snapshot
+     * @param version the version of the data the bodies reflect
+     */
+    public void preload(ResponseSnapshot snapshot, long version)
+    {
+        snapshot.getBodies().forEach((key, body) -> mResponses.putIfAbsent(key, new CachedResponse(version, body)));
+    }
+
+    /**
+     * Retrieves the bodies held for the given version, for writing to a
+     * {@link ResponseSnapshot}.
+     *
+     * @param version the version of the data
+     *
+     * @return The bodies, keyed by end point.
+     */
+    public Map<String, byte[]> getBodies(long version)
+    {
+        Map<String, byte[]> bodies = new LinkedHashMap<>();
+        mResponses.forEach((key, response) -> {
+            if (response.mVersion == version)
+            {
+                bodies.put(key, response.getBody());
+            }
+        });
+        return bodies;
+    }
+
+    /**
+     * Discards all cached responses.
+     */
+    public void clear()
+    {
+        mResponses.clear();
+    }
+
+    /**
+     * @return The cache statistics.
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", mHits.get());
+        statistics.put("misses", mMisses.get());
+        statistics.put("size", (long)mResponses.size());
+        return statistics;
+    }
+
+    /**
+     * An encoded response body.
+     */
+    public static final class CachedResponse
+    {
+        /** The data version the body reflects. */
+        final long mVersion;
+        /** The encoded body (read from the snapshot on demand). */
+        private volatile byte[] mBody;
+        /** The snapshot view holding the encoded body (if any). */
+        private final ByteBuffer mSource;
+        /** The compressed body, produced on demand. */
+        private volatile byte[] mCompressedBody;
+
+        /**
+         * Constructs a new response.
+         *
+         * @param version the data version the body reflects
+         * @param body the encoded body
+         */
+        CachedResponse(long version, byte[] body)
+        {
+            mVersion = version;
+            mBody    = body;
+            mSource  = null;
+        }
+
+        /**
+         * Constructs a new response whose body is held in a snapshot.
+         *
+         * @param version the data version the body reflects
+         * @param source the snapshot view holding the encoded body
+         */
+        CachedResponse(long version, ByteBuffer source)
+        {
+            mVersion = version;
+            mBody    = null;
+            mSource  = source;
+        }
+
+        /**
+         * @return The encoded body.
+         */
+        public byte[] getBody()
+        {
+            byte[] body = mBody;
+            if (body == null)
+            {
+                ByteBuffer source = mSource.duplicate();
+                body = new byte[source.remaining()];
+                source.get(body);
+                mBody = body;
+            }
+            return body;
+        }
+
+        /**
+         * @return The body compressed with GZIP.
+         */
+        public byte[] getCompressedBody()
+        {
+            byte[] compressed = mCompressedBody;
+            if (compressed == null)
+            {
+                byte[] body = getBody();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(buffer))
+                {
+                    gzip.write(body);
+                }
+                catch (IOException e)
+                {
+                    // Cannot happen when writing to memory.
+                    throw new UncheckedIOException(e);
+                }
+                compressed = buffer.toByteArray();
+                mCompressedBody = compressed;
+            }
+            return compressed;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact, binary snapshot of encoded response bodies, written shortly
+ * after the data changes and when the application stops, and memory-mapped
+ * when it next starts so that the first requests after a restart for the
+ * end points it holds do not have to re-score and re-encode the results.
+ *
+ * It only warms the response cache. The entity data is still loaded from
+ * the repository on start-up, and leader boards, rendered pages and the
+ * other derived data are still computed when first needed elsewhere.
+ *
+ * The file holds a header, an index of end point keys and a body for
+ * each key. Only the header and index are read when the snapshot is
+ * opened; each body is a view of the mapped file and is only read when
+ * it is first used. The header records a fingerprint of the data
+ * directory, and a snapshot whose fingerprint does not match the data
+ * is ignored.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public final class ResponseSnapshot
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseSnapshot.class);
+
+    /** Identifies a snapshot file ("FSNP"). */
+    private static final int MAGIC = 0x46534E50;
+    /** The snapshot format. Increment this whenever the format or the encoded payloads change. */
+    private static final int FORMAT = 1;
+
+    /** The bodies, keyed by end point. */
+    private final Map<String, ByteBuffer> mBodies;
+
+    /**
+     * Constructs a new snapshot.
+     *
+     * @param bodies the bodies, keyed by end point
+     */
+    private ResponseSnapshot(Map<String, ByteBuffer> bodies)
+    {
+        mBodies = Collections.unmodifiableMap(bodies);
+    }
+
+    /**
+     * Opens the given snapshot file, provided it matches the data.
+     *
+     * @param file the snapshot file
+     * @param fingerprint the fingerprint of the current data
+     *
+     * @return The snapshot, or <code>null</code> if there is no snapshot
+     *         or it does not match the data.
+     */
+    public static ResponseSnapshot open(Path file, long fingerprint)
+    {
+        if (!Files.isRegularFile(file))
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            // The mapping remains valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT))
+            {
+                LOG.info("Ignoring snapshot in an old format: " + file);
+                return null;
+            }
+            if (buffer.getLong() != fingerprint)
+            {
+                LOG.info("Ignoring stale snapshot: " + file);
+                return null;
+            }
+            int count = buffer.getInt();
+            Map<String, ByteBuffer> bodies = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++)
+            {
+                byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(key);
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                ByteBuffer body = buffer.duplicate();
+                body.position(offset);
+                body.limit(offset + length);
+                bodies.put(new String(key, StandardCharsets.UTF_8), body.slice());
+            }
+            return new ResponseSnapshot(bodies);
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+        {
+            LOG.warn("Ignoring unreadable snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot file. The file is replaced atomically, so a crash
+     * while writing leaves the previous snapshot in place.
+     *
+     * @param file the snapshot file
+     * @param fingerprint the fingerprint of the data the bodies reflect
+     * @param bodies the bodies, keyed by end point
+     *
+     * @throws IOException error writing the file
+     */
+    public static void write(Path file, long fingerprint, Map<String, byte[]> bodies)
+        throws IOException
+    {
+        Map<byte[], byte[]> entries = new LinkedHashMap<>();
+        int offset = 4 + 4 + 8 + 4;
+        for (Map.Entry<String, byte[]> entry : bodies.entrySet())
+        {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            entries.put(key, entry.getValue());
+            offset += 2 + key.length + 4 + 4;
+        }
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial))))
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT);
+            output.writeLong(fingerprint);
+            output.writeInt(entries.size());
+            for (Map.Entry<byte[], byte[]> entry : entries.entrySet())
+            {
+                output.writeShort(entry.getKey().length);
+                output.write(entry.getKey());
+                output.writeInt(offset);
+                output.writeInt(entry.getValue().length);
+                offset += entry.getValue().length;
+            }
+            for (byte[] body : entries.values())
+            {
+                output.write(body);
+            }
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Computes a fingerprint of the files in the given data directory from
+     * their names, sizes and modification times. Any change to the data
+     * made through the application changes the fingerprint.
+     *
+     * @param directory the data directory
+     * @param excluded files in the directory to leave out
+     *
+     * @return The fingerprint.
+     *
+     * @throws IOException error reading the directory
+     */
+    public static long fingerprint(Path directory, Path... excluded)
+        throws IOException
+    {
+        List<Path> ignore = Arrays.stream(excluded).map(path -> path.toAbsolutePath().normalize()).collect(Collectors.toList());
+        long fingerprint = 17;
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            for (Path path : (Iterable<Path>)paths.sorted()::iterator)
+            {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attributes.isRegularFile() || ignore.contains(path.toAbsolutePath().normalize()))
+                {
+                    continue;
+                }
+                fingerprint = 31 * fingerprint + directory.relativize(path).toString().hashCode();
+                fingerprint = 31 * fingerprint + attributes.size();
+                fingerprint = 31 * fingerprint + attributes.lastModifiedTime().toMillis();
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return The bodies, keyed by end point. Each body is a read-only
+     *         view of the mapped file.
+     */
+    public Map<String, ByteBuffer> getBodies()
+    {
+        return mBodies;
+    }
+
+    /**
+     * @return The number of bodies in the snapshot.
+     */
+    public int size()
+    {
+        return mBodies.size();
+    }
+}
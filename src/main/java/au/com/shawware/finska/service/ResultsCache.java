@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import au.com.shawware.compadmin.scoring.EntrantHistory;
+import au.com.shawware.compadmin.scoring.EntrantResult;
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Caches the results computed by the {@link ResultsService}, layered
+ * over the per-round {@link LeaderBoardCache}.
+ *
+ * This only decides which computed results a change discards; it does
+ * not score anything itself. The scoring system only scores a whole
+ * competition (or a whole competition up to a given round), so every
+ * result that has to be recomputed is re-scored from round 1. Running
+ * totals are not carried forward from the last unchanged round, as the
+ * points and rankings are defined by the scoring system's configuration
+ * rather than here; the saving comes only from the rounds whose leader
+ * boards are kept.
+ *
+ * A change to round N discards the cached leader boards for rounds N
+ * onwards and keeps those for rounds 1 to N-1. The round results and
+ * the rank and points histories are whole-competition views, so they
+ * are held for the current competition only and all three are
+ * discarded by any change to that competition.
+ *
+ * Results are computed while holding the read lock for the competition
+ * concerned, so they never reflect a partly applied write. Concurrent
+ * requests for the same view share a single computation.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class ResultsCache
+{
+    /** The service that computes the results. */
+    private final ResultsService mResultsService;
+    /** Records how long the results take to compute. */
+    private final ServiceMetrics mMetrics;
+    /** Keeps the results consistent with concurrent writes. */
+    private final CompetitionLocks mLocks;
+    /** The per-round leader boards. */
+    private final LeaderBoardCache mLeaderBoards;
+    /** The current competition's round results. */
+    private final AtomicReference<View<List<List<EntrantResult>>>> mRoundResults;
+    /** The current competition's rank history. */
+    private final AtomicReference<View<List<EntrantHistory>>> mRankHistory;
+    /** The current competition's points history. */
+    private final AtomicReference<View<List<EntrantHistory>>> mResultHistory;
+    /** Incremented on every invalidation to detect stale computations. */
+    private final AtomicLong mGeneration;
+    /** The number of view requests answered without computation. */
+    private final AtomicLong mHits;
+    /** The number of view requests that had to be computed. */
+    private final AtomicLong mMisses;
+    /** Coalesces concurrent computations of the same view. */
+    private final SingleFlight<String> mFlights;
+
+    /**
+     * Constructs a new service.
+     *
+     * @param resultsService the service that computes the results
+     * @param metrics records how long the results take to compute
+     * @param locks keeps the results consistent with concurrent writes
+     * @param budget the most memory (in bytes) the cached leader boards should use
+     */
+    public ResultsCache(ResultsService resultsService, ServiceMetrics metrics, CompetitionLocks locks, long budget)
+    {
+        mResultsService = resultsService;
+        mMetrics        = metrics;
+        mLocks          = locks;
+        mLeaderBoards   = new LeaderBoardCache(resultsService, metrics, locks, budget);
+        mRoundResults   = new AtomicReference<>();
+        mRankHistory    = new AtomicReference<>();
+        mResultHistory  = new AtomicReference<>();
+        mGeneration     = new AtomicLong(0);
+        mHits           = new AtomicLong(0);
+        mMisses         = new AtomicLong(0);
+        mFlights        = new SingleFlight<>();
+    }
+
+    /**
+     * Retrieves the leader board for the current competition.
+     *
+     * @return The current leader board.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantResult> getLeaderBoard()
+        throws PersistenceException
+    {
+        return mLeaderBoards.getLeaderBoard();
+    }
+
+    /**
+     * Retrieves the leader board for the given competition after the given round.
+     *
+     * @param id the competition ID
+     * @param roundNumber the round number
+     *
+     * @return The leader board.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantResult> getLeaderBoard(int id, int roundNumber)
+        throws PersistenceException
+    {
+        return mLeaderBoards.getLeaderBoard(id, roundNumber);
+    }
+
+    /**
+     * Retrieves the results for each round of the current competition.
+     *
+     * @return The round results.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<List<EntrantResult>> getRoundResults()
+        throws PersistenceException
+    {
+        return lookup(mRoundResults, "roundResults", () -> mResultsService.getRoundResults());
+    }
+
+    /**
+     * Retrieves the players' rank history for the current competition.
+     *
+     * @return The rank history.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantHistory> getRankHistory()
+        throws PersistenceException
+    {
+        return lookup(mRankHistory, "rankHistory", () -> mResultsService.getRankHistory());
+    }
+
+    /**
+     * Retrieves the players' points history for the current competition.
+     *
+     * @return The points history.
+     *
+     * @throws PersistenceException error loading data
+     */
+    public List<EntrantHistory> getResultHistory()
+        throws PersistenceException
+    {
+        return lookup(mResultHistory, "resultHistory", () -> mResultsService.getResultHistory());
+    }
+
+    /**
+     * Records that the given competition has changed from the given round
+     * onwards. Leader boards for earlier rounds are retained; the whole
+     * competition views are discarded.
+     *
+     * @param id the competition ID
+     * @param fromRound the first round affected by the change
+     */
+    public synchronized void invalidate(int id, int fromRound)
+    {
+        mGeneration.incrementAndGet();
+        mLeaderBoards.invalidate(id, fromRound);
+        clear(mRoundResults, id);
+        clear(mRankHistory, id);
+        clear(mResultHistory, id);
+    }
+
+    /**
+     * Records that the current competition may have changed.
+     */
+    public synchronized void invalidateCurrent()
+    {
+        mGeneration.incrementAndGet();
+        mLeaderBoards.invalidateCurrent();
+        mRoundResults.set(null);
+        mRankHistory.set(null);
+        mResultHistory.set(null);
+    }
+
+    /**
+     * @return The statistics for the leader boards and views.
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = mLeaderBoards.getStatistics();
+        statistics.put("viewHits", mHits.get());
+        statistics.put("viewMisses", mMisses.get());
+        statistics.put("viewCoalesced", mFlights.getCoalesced());
+        return statistics;
+    }
+
+    /**
+     * @return The statistics for the leader boards alone.
+     */
+    public Map<String, Long> getLeaderBoardStatistics()
+    {
+        return mLeaderBoards.getStatistics();
+    }
+
+    /**
+     * @return The statistics for the views alone.
+     */
+    public Map<String, Long> getViewStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", mHits.get());
+        statistics.put("misses", mMisses.get());
+        statistics.put("size", (long)(held(mRoundResults) + held(mRankHistory) + held(mResultHistory)));
+        statistics.put("coalesced", mFlights.getCoalesced());
+        return statistics;
+    }
+
+    /**
+     * Retrieves the given view, computing it if necessary.
+     *
+     * @param slot where the view is held
+     * @param name the view's name (for timing)
+     * @param computation how to compute the view
+     *
+     * @return The view's data.
+     *
+     * @throws PersistenceException error loading data
+     */
+    private <T> T lookup(AtomicReference<View<T>> slot, String name, Computation<T> computation)
+        throws PersistenceException
+    {
+        View<T> view = slot.get();
+        if (view != null)
+        {
+            mHits.incrementAndGet();
+            return view.mData;
+        }
+        mMisses.incrementAndGet();
+        long generation = mGeneration.get();
+        return mFlights.execute(name + "@" + generation, () -> {
+            FinskaCompetition competition = mLocks.readAll(() -> mResultsService.getCurrentCompetition());
+            T data = mMetrics.time(ServiceMetrics.SCORING, name,
+                    () -> (competition == null) ? computation.compute() : mLocks.read(competition.getId(), computation::compute));
+            if (competition != null)
+            {
+                synchronized (this)
+                {
+                    if (generation == mGeneration.get())
+                    {
+                        slot.set(new View<>(competition.getId(), data));
+                    }
+                }
+            }
+            return data;
+        });
+    }
+
+    /**
+     * Clears the given view if it belongs to the given competition.
+     *
+     * @param slot where the view is held
+     * @param id the competition ID
+     */
+    private static <T> void clear(AtomicReference<View<T>> slot, int id)
+    {
+        View<T> view = slot.get();
+        if ((view != null) && (view.mCompetitionId == id))
+        {
+            slot.set(null);
+        }
+    }
+
+    /**
+     * @param slot where a view is held
+     *
+     * @return The number of views held in the slot.
+     */
+    private static int held(AtomicReference<?> slot)
+    {
+        return (slot.get() == null) ? 0 : 1;
+    }
+
+    /**
+     * A results view and the competition it was computed for.
+     *
+     * @param <T> the type of view held
+     */
+    private static final class View<T>
+    {
+        /** The ID of the competition the view belongs to. */
+        final int mCompetitionId;
+        /** The view's data. */
+        final T mData;
+
+        /**
+         * Constructs a new view.
+         *
+         * @param competitionId the ID of the competition the view belongs to
+         * @param data the view's data
+         */
+        View(int competitionId, T data)
+        {
+            mCompetitionId = competitionId;
+            mData          = data;
+        }
+    }
+}
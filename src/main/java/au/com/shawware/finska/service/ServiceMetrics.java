@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.stereotype.Component;
+
+import au.com.shawware.util.persistence.PersistenceException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the timings and counts for the services behind this web
+ * application so they can be inspected through the Actuator.
+ *
+ * Controller mappings are timed by Spring Boot itself (as
+ * <code>http.server.requests</code>). This class covers the work behind
+ * them: reads and writes through the {@link DataService} and the scoring
+ * done whenever a result is not already held. Percentiles and histograms
+ * are configured for all of these meters by name in the application
+ * properties.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@Component
+@SuppressWarnings("nls")
+public class ServiceMetrics
+{
+    /** The timer for reads through the data service. */
+    public static final String SERVICE = "finska.service";
+    /** The timer for writes through the data service. */
+    public static final String PERSISTENCE = "finska.persistence";
+    /** The timer for computing results. */
+    public static final String SCORING = "finska.scoring";
+
+    /** The tag that identifies the operation being timed. */
+    private static final String OPERATION = "operation";
+    /** The tag that identifies a cache. */
+    private static final String CACHE = "cache";
+
+    /** Where the meters are registered. */
+    private final MeterRegistry mRegistry;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param registry where to register the meters
+     */
+    public ServiceMetrics(MeterRegistry registry)
+    {
+        mRegistry = registry;
+    }
+
+    /**
+     * Retrieves the timer for the given operation.
+     *
+     * @param name the timer's name
+     * @param operation the operation being timed
+     *
+     * @return The timer.
+     */
+    public Timer timer(String name, String operation)
+    {
+        return Timer.builder(name).tag(OPERATION, operation).register(mRegistry);
+    }
+
+    /**
+     * Performs the given computation, recording how long it took.
+     *
+     * @param name the timer's name
+     * @param operation the operation being timed
+     * @param computation the computation to perform
+     *
+     * @return The computation's result.
+     *
+     * @throws PersistenceException error loading or storing data
+     */
+    public <T> T time(String name, String operation, Computation<T> computation)
+        throws PersistenceException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            return computation.compute();
+        }
+        finally
+        {
+            timer(name, operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Registers the hits, misses and size of the given cache, along with
+     * its loads, evictions, estimated size in bytes and coalesced
+     * computations if it reports them.
+     * The statistics are only read when the meters are published. Meters
+     * only hold a weak reference to their source, so it must be held
+     * elsewhere for as long as it is to be reported.
+     *
+     * @param cache the cache's name
+     * @param source the object that holds the cache
+     * @param statistics reads the cache's current statistics from the source
+     */
+    public <T> void monitor(String cache, T source, Function<T, Map<String, Long>> statistics)
+    {
+        FunctionCounter.builder("finska.cache.hits", source, s -> statistic(statistics.apply(s), "hits"))
+            .tag(CACHE, cache).register(mRegistry);
+        FunctionCounter.builder("finska.cache.misses", source, s -> statistic(statistics.apply(s), "misses"))
+            .tag(CACHE, cache).register(mRegistry);
+        Gauge.builder("finska.cache.size", source, s -> statistic(statistics.apply(s), "size"))
+            .tag(CACHE, cache).register(mRegistry);
+        if (statistics.apply(source).containsKey("evictions"))
+        {
+            FunctionCounter.builder("finska.cache.loads", source, s -> statistic(statistics.apply(s), "loads"))
+                .tag(CACHE, cache).register(mRegistry);
+            FunctionCounter.builder("finska.cache.evictions", source, s -> statistic(statistics.apply(s), "evictions"))
+                .tag(CACHE, cache).register(mRegistry);
+            Gauge.builder("finska.cache.weight", source, s -> statistic(statistics.apply(s), "weight"))
+                .tag(CACHE, cache).baseUnit("bytes").register(mRegistry);
+        }
+        if (statistics.apply(source).containsKey("coalesced"))
+        {
+            FunctionCounter.builder("finska.cache.coalesced", source, s -> statistic(statistics.apply(s), "coalesced"))
+                .tag(CACHE, cache).register(mRegistry);
+        }
+    }
+
+    /**
+     * Registers a gauge that reports a value read from the given source.
+     *
+     * @param name the gauge's name
+     * @param source the object that holds the value
+     * @param value reads the current value from the source
+     */
+    public <T> void gauge(String name, T source, ToDoubleFunction<T> value)
+    {
+        Gauge.builder(name, source, value).register(mRegistry);
+    }
+
+    /**
+     * Reads a single statistic.
+     *
+     * @param statistics the statistics
+     * @param key the statistic to read
+     *
+     * @return The statistic's value (zero if absent).
+     */
+    private static double statistic(Map<String, Long> statistics, String key)
+    {
+        Long value = statistics.get(key);
+        return (value == null) ? 0 : value.doubleValue();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Coalesces concurrent requests for the same computation.
+ *
+ * The first caller for a key performs the computation; any caller that
+ * asks for the same key while it is in progress waits for it and
+ * receives the same result (or failure) instead of repeating the work.
+ * Nothing is retained once the computation completes, so keys should
+ * identify the version of the data being computed from (such as a cache
+ * generation) to stop late callers sharing a result that is already
+ * stale.
+ *
+ * @param <K> the type of key that identifies a computation
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+public class SingleFlight<K>
+{
+    /** The computations in progress, keyed by what they compute. */
+    private final ConcurrentMap<K, CompletableFuture<Object>> mInFlight;
+    /** The number of computations performed. */
+    private final AtomicLong mComputations;
+    /** The number of callers that shared another caller's computation. */
+    private final AtomicLong mCoalesced;
+
+    /**
+     * Constructs a new instance.
+     */
+    public SingleFlight()
+    {
+        mInFlight     = new ConcurrentHashMap<>();
+        mComputations = new AtomicLong(0);
+        mCoalesced    = new AtomicLong(0);
+    }
+
+    /**
+     * Performs the given computation, unless it is already in progress
+     * for the given key, in which case its result is awaited instead.
+     *
+     * @param key identifies the computation
+     * @param computation the computation to perform
+     *
+     * @return The computation's result.
+     *
+     * @throws PersistenceException error loading data
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(K key, Computation<T> computation)
+        throws PersistenceException
+    {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = mInFlight.putIfAbsent(key, flight);
+        if (existing != null)
+        {
+            mCoalesced.incrementAndGet();
+            return (T)await(existing);
+        }
+        mComputations.incrementAndGet();
+        try
+        {
+            T result = computation.compute();
+            flight.complete(result);
+            return result;
+        }
+        catch (PersistenceException | RuntimeException | Error e)
+        {
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            mInFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return The number of computations performed.
+     */
+    public long getComputations()
+    {
+        return mComputations.get();
+    }
+
+    /**
+     * @return The number of computations saved by sharing another caller's.
+     */
+    public long getCoalesced()
+    {
+        return mCoalesced.get();
+    }
+
+    /**
+     * Waits for another caller's computation to complete.
+     *
+     * @param flight the computation
+     *
+     * @return The computation's result.
+     *
+     * @throws PersistenceException the computation failed to load data
+     */
+    private static Object await(CompletableFuture<Object> flight)
+        throws PersistenceException
+    {
+        try
+        {
+            return flight.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for a result", e); //$NON-NLS-1$
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof PersistenceException)
+            {
+                throw (PersistenceException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw (Error)cause;
+        }
+    }
+}
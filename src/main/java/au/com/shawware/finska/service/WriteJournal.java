@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * A write-behind journal of updates.
+ *
+ * An update is acknowledged as soon as it has been appended to the
+ * journal file and forced to disk. The updates are then applied to the
+ * underlying repository in batches, on a single background thread,
+ * shortly after the first update in a batch arrives. Any updates not
+ * applied before a crash are read back by {@link #open(long, long)} and
+ * applied by the next {@link #flush()}.
+ *
+ * By default the file is truncated once every update in it has been
+ * applied. A retained journal is never truncated, and so serves as a
+ * complete, ordered log of every update (see {@link EventLog}).
+ *
+ * An update that fails to apply has already been acknowledged, so it is
+ * never simply dropped. It is appended (in the journal's own format) to a
+ * dead-letter file alongside the journal, named after the journal with a
+ * <code>.failed</code> suffix, before the journal is truncated. If the
+ * dead-letter file cannot be written, the journal is not truncated again
+ * until the application restarts, so the update is retried then.
+ *
+ * Updates are applied in the order they were appended. {@link #flush()}
+ * applies any pending updates on the caller's thread, so callers that
+ * need to read their own writes (or to order other writes after them)
+ * can do so.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class WriteJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WriteJournal.class);
+
+    /** Where the journal is held. */
+    private final Path mFile;
+    /** Where updates that could not be applied are kept. */
+    private final Path mFailedFile;
+    /** Applies a batch of updates to the underlying repository. */
+    private final Applier mApplier;
+    /** How long to wait for more updates before applying a batch. */
+    private final long mDelay;
+    /** Whether to keep updates in the file once they are applied. */
+    private final boolean mRetain;
+    /** The updates that have been journalled but not yet applied. */
+    private final List<JournalEntry> mPending;
+    /** Whether a batch has been scheduled. */
+    private final AtomicBoolean mScheduled;
+    /** Ensures only one batch is applied at a time. */
+    private final Object mApplyLock;
+    /** The thread that applies batches. */
+    private final ScheduledExecutorService mExecutor;
+    /** The open journal file. */
+    private FileChannel mChannel;
+    /** The sequence number of the last update appended. */
+    private long mSequence;
+    /** The number of updates in the dead-letter file. */
+    private int mFailures;
+    /** Whether a failed update could not be written to the dead-letter file. */
+    private boolean mUnrecorded;
+
+    /**
+     * Constructs a new journal.
+     *
+     * @param file where to hold the journal
+     * @param delay how long to wait (in milliseconds) for more updates before applying a batch
+     * @param retain whether to keep updates in the file once they are applied
+     * @param applier applies a batch of updates to the underlying repository
+     */
+    public WriteJournal(Path file, long delay, boolean retain, Applier applier)
+    {
+        mFile       = file;
+        mFailedFile = file.resolveSibling(file.getFileName() + ".failed");
+        mDelay      = delay;
+        mRetain     = retain;
+        mApplier    = applier;
+        mPending    = new ArrayList<>();
+        mScheduled  = new AtomicBoolean(false);
+        mApplyLock  = new Object();
+        mExecutor   = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "finska-journal-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mChannel    = null;
+        mSequence   = 0;
+        mFailures   = 0;
+        mUnrecorded = false;
+    }
+
+    /**
+     * Opens the journal, reading back any updates after the given sequence
+     * number. These updates are applied by the next flush.
+     *
+     * @param after the sequence number of the last update known to be applied
+     *
+     * @return The number of updates read back.
+     *
+     * @throws PersistenceException error reading the journal
+     */
+    public int open(long after)
+        throws PersistenceException
+    {
+        return open(after, 0);
+    }
+
+    /**
+     * Opens the journal, reading back any updates after the given sequence
+     * number. Only the file from the given offset onwards is read, so a
+     * retained journal need not be read in full. These updates are applied
+     * by the next flush.
+     *
+     * @param after the sequence number of the last update known to be applied
+     * @param from the offset in the file just after that update (or zero to read it all)
+     *
+     * @return The number of updates read back.
+     *
+     * @throws PersistenceException error reading the journal
+     */
+    public synchronized int open(long after, long from)
+        throws PersistenceException
+    {
+        try
+        {
+            List<JournalEntry> entries = new ArrayList<>();
+            long complete = read(mFile, from, entries);
+            mSequence = Math.max(mSequence, after);
+            for (JournalEntry entry : entries)
+            {
+                mSequence = Math.max(mSequence, entry.getSequence());
+                if (entry.getSequence() > after)
+                {
+                    mPending.add(entry);
+                }
+            }
+            mChannel = FileChannel.open(mFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            mChannel.truncate(complete);
+            mChannel.position(complete);
+            if (Files.exists(mFailedFile))
+            {
+                mFailures = read(mFailedFile).size();
+                LOG.warn(mFailures + " journalled updates could not be applied; see " + mFailedFile);
+            }
+            return mPending.size();
+        }
+        catch (IOException e)
+        {
+            throw new PersistenceException("Unable to open journal " + mFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads all the updates in the given journal file.
+     *
+     * @param file the journal file
+     *
+     * @return The updates, in order.
+     *
+     * @throws PersistenceException error reading the journal
+     */
+    public static List<JournalEntry> read(Path file)
+        throws PersistenceException
+    {
+        try
+        {
+            List<JournalEntry> entries = new ArrayList<>();
+            read(file, 0, entries);
+            return entries;
+        }
+        catch (IOException e)
+        {
+            throw new PersistenceException("Unable to read journal " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads all the complete updates in the given journal file from the
+     * given offset onwards, which must be the start of an update.
+     *
+     * @param file the journal file
+     * @param from the offset to start reading from
+     * @param entries where to add the updates
+     *
+     * @return The length of the file up to the end of the last complete update.
+     *
+     * @throws IOException error reading the journal
+     * @throws PersistenceException the journal is corrupt
+     */
+    private static long read(Path file, long from, List<JournalEntry> entries)
+        throws IOException, PersistenceException
+    {
+        byte[] contents = new byte[0];
+        if (Files.exists(file))
+        {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                if (from > channel.size())
+                {
+                    throw new PersistenceException("Journal " + file + " is shorter than offset " + from);
+                }
+                contents = new byte[(int)(channel.size() - from)];
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                channel.position(from);
+                while (buffer.hasRemaining() && (channel.read(buffer) >= 0))
+                {
+                    // Keep reading until the buffer is full.
+                }
+            }
+        }
+        // Every complete entry ends with a new line; anything after the last one is a torn write.
+        int start = 0;
+        for (int end = 0; end < contents.length; end++)
+        {
+            if (contents[end] == '\n')
+            {
+                try
+                {
+                    JournalEntry entry = JournalEntry.decode(new String(contents, start, end - start, StandardCharsets.UTF_8));
+                    entry.setEnd(from + end + 1);
+                    entries.add(entry);
+                }
+                catch (IllegalArgumentException | DateTimeParseException e)
+                {
+                    throw new PersistenceException("Corrupt journal " + file + ": " + e.getMessage(), e);
+                }
+                start = end + 1;
+            }
+        }
+        if (start < contents.length)
+        {
+            LOG.warn("Ignoring incomplete journal entry: " + new String(contents, start, contents.length - start, StandardCharsets.UTF_8));
+        }
+        return from + start;
+    }
+
+    /**
+     * Appends the given update to the journal. The update is durable once
+     * this method returns, and will be applied shortly afterwards.
+     *
+     * @param entry the update
+     *
+     * @throws PersistenceException error writing the journal
+     */
+    public void append(JournalEntry entry)
+        throws PersistenceException
+    {
+        append(Collections.singletonList(entry));
+    }
+
+    /**
+     * Appends the given updates to the journal with a single write. The
+     * updates are durable once this method returns, and will be applied
+     * shortly afterwards, in order.
+     *
+     * @param entries the updates
+     *
+     * @throws PersistenceException error writing the journal
+     */
+    public void append(List<JournalEntry> entries)
+        throws PersistenceException
+    {
+        synchronized (this)
+        {
+            long sequence = mSequence;
+            try
+            {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                long start = mChannel.position();
+                for (JournalEntry entry : entries)
+                {
+                    entry.setSequence(++sequence);
+                    byte[] line = (entry.encode() + '\n').getBytes(StandardCharsets.UTF_8);
+                    encoded.write(line, 0, line.length);
+                    entry.setEnd(start + encoded.size());
+                }
+                mChannel.write(ByteBuffer.wrap(encoded.toByteArray()));
+                mChannel.force(false);
+            }
+            catch (IOException e)
+            {
+                throw new PersistenceException("Unable to write journal " + mFile + ": " + e.getMessage(), e);
+            }
+            mSequence = sequence;
+            mPending.addAll(entries);
+        }
+        if (mScheduled.compareAndSet(false, true))
+        {
+            mExecutor.schedule(() -> {
+                mScheduled.set(false);
+                flush();
+            }, mDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Applies all pending updates and then (unless the journal is retained)
+     * empties the journal.
+     */
+    public void flush()
+    {
+        synchronized (mApplyLock)
+        {
+            List<JournalEntry> batch;
+            synchronized (this)
+            {
+                batch = new ArrayList<>(mPending);
+            }
+            if (batch.isEmpty())
+            {
+                return;
+            }
+            mApplier.apply(batch);
+            List<JournalEntry> failed = new ArrayList<>();
+            for (JournalEntry entry : batch)
+            {
+                if (entry.getFailure() != null)
+                {
+                    failed.add(entry);
+                }
+            }
+            if (!failed.isEmpty())
+            {
+                recordFailures(failed);
+            }
+            synchronized (this)
+            {
+                mPending.subList(0, batch.size()).clear();
+                if (mPending.isEmpty() && !mRetain && !mUnrecorded)
+                {
+                    try
+                    {
+                        mChannel.truncate(0);
+                        mChannel.force(false);
+                    }
+                    catch (IOException e)
+                    {
+                        // The entries will be re-applied on restart, which is harmless.
+                        LOG.error("Unable to empty journal " + mFile + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the given updates to the dead-letter file.
+     *
+     * @param failed the updates that could not be applied
+     */
+    private void recordFailures(List<JournalEntry> failed)
+    {
+        StringBuilder encoded = new StringBuilder();
+        for (JournalEntry entry : failed)
+        {
+            encoded.append(entry.encode()).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(mFailedFile, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+        {
+            channel.write(ByteBuffer.wrap(encoded.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+            LOG.error(failed.size() + " journalled updates could not be applied and were moved to " + mFailedFile);
+        }
+        catch (IOException e)
+        {
+            // Keep the journal so that the updates are retried on restart.
+            LOG.error("Unable to record failed updates in " + mFailedFile + ": " + e.getMessage(), e);
+            synchronized (this)
+            {
+                mUnrecorded = true;
+            }
+        }
+        synchronized (this)
+        {
+            mFailures += failed.size();
+        }
+    }
+
+    /**
+     * @return The number of updates that could not be applied.
+     */
+    public synchronized int getFailedCount()
+    {
+        return mFailures;
+    }
+
+    /**
+     * @return Where updates that could not be applied are kept.
+     */
+    public Path getFailedFile()
+    {
+        return mFailedFile;
+    }
+
+    /**
+     * Performs the given action while no updates are being applied, so
+     * that the repository and the data derived from it are consistent.
+     *
+     * @param action the action to perform
+     *
+     * @return The action's result.
+     *
+     * @throws E the action failed
+     */
+    public <T, E extends Exception> T whileIdle(CompetitionLocks.Action<T, E> action)
+        throws E
+    {
+        synchronized (mApplyLock)
+        {
+            return action.perform();
+        }
+    }
+
+    /**
+     * @return The number of updates that have not yet been applied.
+     */
+    public synchronized int getPendingCount()
+    {
+        return mPending.size();
+    }
+
+    /**
+     * @return The sequence number of the last update appended.
+     */
+    public synchronized long getSequence()
+    {
+        return mSequence;
+    }
+
+    /**
+     * Applies any pending updates and closes the journal.
+     */
+    public void close()
+    {
+        mExecutor.shutdownNow();
+        flush();
+        synchronized (this)
+        {
+            try
+            {
+                if (mChannel != null)
+                {
+                    mChannel.close();
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.error("Unable to close journal " + mFile + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Applies journalled updates to the underlying repository.
+     */
+    @FunctionalInterface
+    public interface Applier
+    {
+        /**
+         * Applies the given updates, in order. A failure to apply a single
+         * update must be recorded on the update (see
+         * {@link JournalEntry#getFailure()}) rather than thrown, as the
+         * batch is treated as applied once this returns; failed updates are
+         * then moved to the dead-letter file.
+         *
+         * @param entries the updates to apply
+         */
+        void apply(List<JournalEntry> entries);
+    }
+}
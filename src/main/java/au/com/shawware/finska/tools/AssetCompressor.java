@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzip-compressed copy (<code>name.gz</code>) alongside each
+ * text asset in the given directories so that they can be served
+ * without compressing them on every request. Assets that are already
+ * compressed (such as images) are skipped, as are copies that would
+ * not be smaller than the original. Copies that are newer than their
+ * original are left alone, so the build can run this repeatedly.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class AssetCompressor
+{
+    /** The extensions of the assets worth compressing. */
+    private static final List<String> EXTENSIONS = Arrays.asList(".css", ".js", ".map", ".svg", ".html", ".json", ".txt");
+
+    /** The number of assets compressed. */
+    private int mCompressed;
+    /** The number of assets whose compressed copy was up to date. */
+    private int mCurrent;
+    /** The number of assets that did not compress. */
+    private int mSkipped;
+
+    /**
+     * Compresses the assets in the given directory and its subdirectories.
+     *
+     * @param dir the directory
+     *
+     * @throws IOException error reading or writing an asset
+     */
+    public void compress(Path dir)
+        throws IOException
+    {
+        List<Path> assets;
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            assets = files.filter(Files::isRegularFile).filter(AssetCompressor::isText).collect(Collectors.toList());
+        }
+        for (Path asset : assets)
+        {
+            compressAsset(asset);
+        }
+    }
+
+    /**
+     * Compresses the given asset if its compressed copy is missing or
+     * out of date.
+     *
+     * @param asset the asset
+     *
+     * @throws IOException error reading or writing the asset
+     */
+    private void compressAsset(Path asset)
+        throws IOException
+    {
+        Path compressed = asset.resolveSibling(asset.getFileName() + ".gz");
+        if (Files.exists(compressed)
+                && (Files.getLastModifiedTime(compressed).compareTo(Files.getLastModifiedTime(asset)) >= 0))
+        {
+            mCurrent++;
+            return;
+        }
+        byte[] original = Files.readAllBytes(asset);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(original.length / 2);
+        // Compression happens once, at build time, so use the best level.
+        try (GZIPOutputStream output = new GZIPOutputStream(buffer)
+            {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            })
+        {
+            output.write(original);
+        }
+        if (buffer.size() < original.length)
+        {
+            Files.write(compressed, buffer.toByteArray());
+            mCompressed++;
+        }
+        else
+        {
+            Files.deleteIfExists(compressed);
+            mSkipped++;
+        }
+    }
+
+    /**
+     * @param file a file
+     *
+     * @return Whether the given file is a text asset worth compressing.
+     */
+    private static boolean isText(Path file)
+    {
+        String name = file.getFileName().toString().toLowerCase();
+        return EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+
+    /**
+     * Compresses the assets in the directories given on the command line.
+     * Directories that do not exist are ignored.
+     *
+     * <pre>
+     * AssetCompressor dir...
+     * </pre>
+     *
+     * @param args command line arguments
+     *
+     * @throws IOException error reading or writing an asset
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: AssetCompressor dir...");
+            return;
+        }
+        AssetCompressor compressor = new AssetCompressor();
+        for (String arg : args)
+        {
+            Path dir = Paths.get(arg);
+            if (Files.isDirectory(dir))
+            {
+                compressor.compress(dir);
+            }
+        }
+        System.out.println(String.format("Compressed %d assets (%d up to date, %d not worth compressing)",
+                                         compressor.mCompressed, compressor.mCurrent, compressor.mSkipped));
+    }
+}
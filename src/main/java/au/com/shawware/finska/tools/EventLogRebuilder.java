@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.tools;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.service.EventLog;
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Rebuilds the data files as they stood after a given update in an event
+ * log. The result is an ordinary data directory, so it can be inspected
+ * or used as the application's data directory.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class EventLogRebuilder
+{
+    /**
+     * Rebuilds a data directory from the command line.
+     *
+     * <pre>
+     * EventLogRebuilder log-dir sequence data-dir
+     * </pre>
+     *
+     * The data directory must not exist.
+     *
+     * @param args command line arguments
+     *
+     * @throws PersistenceException error rebuilding the data
+     */
+    public static void main(String[] args)
+        throws PersistenceException
+    {
+        if (args.length != 3)
+        {
+            System.err.println("Usage: EventLogRebuilder log-dir sequence data-dir");
+            return;
+        }
+        Path logDir = Paths.get(args[0]);
+        long sequence = Long.parseLong(args[1]);
+        Path dataDir = Paths.get(args[2]);
+        int replayed = EventLog.rebuild(logDir, sequence, dataDir, DataService.createScoringSystem());
+        System.out.println(String.format("Rebuilt %s as at update %d (%d updates replayed)", dataDir, sequence, replayed));
+    }
+}
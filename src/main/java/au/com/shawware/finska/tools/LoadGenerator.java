@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates HTTP load against a running application and reports the
+ * throughput and latency percentiles. Each client repeatedly requests
+ * the given URLs in turn, optionally pausing between requests to mimic
+ * slow spectator screens, so the same run can be repeated against
+ * different server configurations (such as different worker pool sizes)
+ * and compared.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class LoadGenerator
+{
+    /** The URLs to request. */
+    private final List<URL> mUrls;
+    /** The number of concurrent clients. */
+    private final int mClients;
+    /** How long to generate load for (in seconds). */
+    private final int mDuration;
+    /** How long each client pauses between requests (in milliseconds). */
+    private final long mPause;
+
+    /**
+     * Constructs a new generator.
+     *
+     * @param urls the URLs to request
+     * @param clients the number of concurrent clients
+     * @param duration how long to generate load for (in seconds)
+     * @param pause how long each client pauses between requests (in milliseconds)
+     */
+    public LoadGenerator(List<URL> urls, int clients, int duration, long pause)
+    {
+        mUrls     = urls;
+        mClients  = clients;
+        mDuration = duration;
+        mPause    = pause;
+    }
+
+    /**
+     * Generates the load and prints the results.
+     *
+     * @throws Exception error generating the load
+     */
+    public void run()
+        throws Exception
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(mDuration);
+        ExecutorService executor = Executors.newFixedThreadPool(mClients);
+        List<Future<Client>> futures = new ArrayList<>(mClients);
+        for (int i = 0; i < mClients; i++)
+        {
+            int first = i;
+            futures.add(executor.submit(() -> new Client(first).run(end)));
+        }
+        List<Long> latencies = new ArrayList<>();
+        int errors = 0;
+        for (Future<Client> future : futures)
+        {
+            Client client = future.get();
+            latencies.addAll(client.mLatencies);
+            errors += client.mErrors;
+        }
+        executor.shutdown();
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.println(String.format("%d clients for %ds: %d successful requests (%.1f/s), %d errors",
+                                         mClients, mDuration, sorted.length, (double)sorted.length / mDuration, errors));
+        if (sorted.length > 0)
+        {
+            System.out.println(String.format("latency (ms): p50 %.2f, p95 %.2f, p99 %.2f, max %.2f",
+                                             millis(sorted, 0.50), millis(sorted, 0.95), millis(sorted, 0.99),
+                                             millis(sorted, 1.0)));
+        }
+    }
+
+    /**
+     * @param sorted the latencies (in nanoseconds), sorted
+     * @param percentile the percentile required (0 to 1)
+     *
+     * @return The latency at the given percentile (in milliseconds).
+     */
+    private static double millis(long[] sorted, double percentile)
+    {
+        int index = Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Generates load from the command line.
+     *
+     * <pre>
+     * LoadGenerator url... [--clients N] [--duration S] [--pause MS]
+     * </pre>
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception error generating the load
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        List<URL> urls = new ArrayList<>();
+        int clients = 50;
+        int duration = 30;
+        long pause = 0;
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--clients":  clients  = Integer.parseInt(args[++i]); break;
+                case "--duration": duration = Integer.parseInt(args[++i]); break;
+                case "--pause":    pause    = Long.parseLong(args[++i]);   break;
+                default:           urls.add(new URL(args[i]));             break;
+            }
+        }
+        if (urls.isEmpty())
+        {
+            System.err.println("Usage: LoadGenerator url... [--clients N] [--duration S] [--pause MS]");
+            return;
+        }
+        System.out.println("Requesting " + Arrays.toString(urls.toArray()));
+        new LoadGenerator(urls, clients, duration, pause).run();
+    }
+
+    /**
+     * A single client, requesting the URLs in turn.
+     */
+    private final class Client
+    {
+        /** The index of the next URL to request. */
+        private int mNext;
+        /** The latency of each successful request (in nanoseconds). */
+        final List<Long> mLatencies;
+        /** The number of failed requests. */
+        int mErrors;
+
+        /**
+         * Constructs a new client.
+         *
+         * @param first the index of the first URL to request
+         */
+        Client(int first)
+        {
+            mNext      = first;
+            mLatencies = new ArrayList<>();
+            mErrors    = 0;
+        }
+
+        /**
+         * Requests URLs until the given time.
+         *
+         * @param end when to stop (in nanoseconds)
+         *
+         * @return This client.
+         *
+         * @throws InterruptedException interrupted while pausing
+         */
+        Client run(long end)
+            throws InterruptedException
+        {
+            byte[] buffer = new byte[8192];
+            while (System.nanoTime() < end)
+            {
+                URL url = mUrls.get(mNext++ % mUrls.size());
+                long start = System.nanoTime();
+                try
+                {
+                    HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+                    connection.setRequestProperty("Accept-Encoding", "gzip");
+                    try (InputStream input = connection.getInputStream())
+                    {
+                        while (input.read(buffer) >= 0)
+                        {
+                            // Read the whole body, as a browser would.
+                        }
+                    }
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
+                    {
+                        mLatencies.add(System.nanoTime() - start);
+                    }
+                    else
+                    {
+                        mErrors++;
+                    }
+                }
+                catch (IOException e)
+                {
+                    mErrors++;
+                }
+                if (mPause > 0)
+                {
+                    Thread.sleep(mPause);
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.tools;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import au.com.shawware.finska.entity.FinskaCompetition;
+import au.com.shawware.finska.entity.FinskaRound;
+import au.com.shawware.finska.service.CompetitionService;
+import au.com.shawware.finska.service.DataService;
+import au.com.shawware.finska.service.MatchService;
+import au.com.shawware.finska.service.PlayerService;
+import au.com.shawware.finska.service.RoundService;
+import au.com.shawware.finska.service.ServiceFactory;
+import au.com.shawware.util.persistence.PersistenceException;
+import au.com.shawware.util.persistence.PersistenceFactory;
+
+/**
+ * Generates a synthetic set of players, competitions, rounds and matches.
+ *
+ * The data is written through the standard services, so it is stored in
+ * exactly the form the application reads. The same seed always produces
+ * the same data, so season-scale and league-scale loads can be reproduced.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "boxing" })
+public class SyntheticDataGenerator
+{
+    /** The seed for the random number generator. */
+    private final long mSeed;
+    /** The number of players to create. */
+    private final int mPlayers;
+    /** The number of competitions to create. */
+    private final int mCompetitions;
+    /** The number of rounds to create in each competition. */
+    private final int mRounds;
+    /** The number of matches to create in each round. */
+    private final int mMatches;
+
+    /**
+     * Constructs a new generator.
+     *
+     * @param seed the seed for the random number generator
+     * @param players the number of players to create
+     * @param competitions the number of competitions to create
+     * @param rounds the number of rounds to create in each competition
+     * @param matches the number of matches to create in each round
+     */
+    public SyntheticDataGenerator(long seed, int players, int competitions, int rounds, int matches)
+    {
+        if (players < 2)
+        {
+            throw new IllegalArgumentException("At least two players are required: " + players);
+        }
+        mSeed         = seed;
+        mPlayers      = players;
+        mCompetitions = competitions;
+        mRounds       = rounds;
+        mMatches      = matches;
+    }
+
+    /**
+     * Generates the data into the given data directory.
+     *
+     * @param dataDir the (empty) data directory to populate
+     *
+     * @throws PersistenceException error writing the data
+     */
+    public void generate(String dataDir)
+        throws PersistenceException
+    {
+        ServiceFactory services = ServiceFactory.getFactory(PersistenceFactory.getFactory(dataDir),
+                                                            DataService.createScoringSystem());
+        PlayerService playerService = services.getPlayerService();
+        CompetitionService competitionService = services.getCompetitionService();
+        RoundService roundService = services.getRoundService();
+        MatchService matchService = services.getMatchService();
+        Random random = new Random(mSeed);
+
+        for (int i = 1; i <= mPlayers; i++)
+        {
+            playerService.createPlayer("Player " + i);
+        }
+        int[] playerIds = playerService.getPlayers().keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+
+        LocalDate startDate = LocalDate.of(2018, 1, 1);
+        for (int c = 1; c <= mCompetitions; c++)
+        {
+            FinskaCompetition competition = competitionService.createCompetition("Competition " + c, startDate, playerIds);
+            for (int r = 0; r < mRounds; r++)
+            {
+                int[] roundPlayers = choose(random, playerIds, 2 + random.nextInt(playerIds.length - 1));
+                FinskaRound round = roundService.createRound(competition.getId(), startDate.plusWeeks(r), roundPlayers);
+                for (int m = 0; m < mMatches; m++)
+                {
+                    // Mostly a single winner, occasionally a pair.
+                    int[] winners = choose(random, roundPlayers, (random.nextInt(5) == 0) ? 2 : 1);
+                    boolean fastWin = random.nextInt(10) == 0;
+                    matchService.createMatch(competition.getId(), round.getKey(), winners, fastWin);
+                }
+            }
+            startDate = startDate.plusWeeks(mRounds + 1);
+        }
+    }
+
+    /**
+     * Generates a data directory from the command line.
+     *
+     * <pre>
+     * SyntheticDataGenerator data-dir [--players N] [--competitions M] [--rounds R] [--matches K] [--seed S]
+     * </pre>
+     *
+     * The data directory must not exist or must be empty.
+     *
+     * @param args command line arguments
+     *
+     * @throws PersistenceException error writing the data
+     */
+    public static void main(String[] args)
+        throws PersistenceException
+    {
+        if ((args.length == 0) || (args.length % 2 == 0))
+        {
+            usage();
+            return;
+        }
+        long seed        = 1;
+        int players      = 20;
+        int competitions = 1;
+        int rounds       = 10;
+        int matches      = 5;
+        for (int i = 1; i < args.length; i += 2)
+        {
+            String value = args[i + 1];
+            switch (args[i])
+            {
+                case "--seed":         seed         = Long.parseLong(value);    break;
+                case "--players":      players      = Integer.parseInt(value); break;
+                case "--competitions": competitions = Integer.parseInt(value); break;
+                case "--rounds":       rounds       = Integer.parseInt(value); break;
+                case "--matches":      matches      = Integer.parseInt(value); break;
+                default:
+                    usage();
+                    return;
+            }
+        }
+
+        File dataDir = new File(args[0]);
+        if (dataDir.exists() && (!dataDir.isDirectory() || (dataDir.list().length > 0)))
+        {
+            System.err.println("Not an empty directory: " + dataDir);
+            return;
+        }
+        if (!dataDir.exists() && !dataDir.mkdirs())
+        {
+            System.err.println("Unable to create directory: " + dataDir);
+            return;
+        }
+        new SyntheticDataGenerator(seed, players, competitions, rounds, matches).generate(dataDir.getPath());
+        System.out.println(String.format("Generated %d players, %d competitions of %d rounds with %d matches each in %s",
+                                         players, competitions, rounds, matches, dataDir));
+    }
+
+    /**
+     * Describes the command line.
+     */
+    private static void usage()
+    {
+        System.err.println("Usage: SyntheticDataGenerator data-dir [--players N] [--competitions M] [--rounds R] [--matches K] [--seed S]");
+    }
+
+    /**
+     * Chooses a random subset of the given IDs.
+     *
+     * @param random the random number generator to use
+     * @param ids the IDs to choose from
+     * @param count the number of IDs to choose
+     *
+     * @return The chosen IDs in ascending order.
+     */
+    private static int[] choose(Random random, int[] ids, int count)
+    {
+        int[] shuffled = ids.clone();
+        for (int i = shuffled.length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        int[] chosen = Arrays.copyOf(shuffled, Math.min(count, shuffled.length));
+        Arrays.sort(chosen);
+        return chosen;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.webapp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.resource.ContentVersionStrategy;
+import org.springframework.web.servlet.resource.VersionStrategy;
+
+/**
+ * Lets browsers cache static resources requested through content-versioned
+ * URLs for a year and marks them as immutable so that they are never
+ * revalidated, even when the page that uses them is reloaded.
+ *
+ * A content-versioned URL (such as <code>bootstrap.min-&lt;hash&gt;.css</code>)
+ * carries the hash of the resource's content, as added by the resource
+ * chain's {@link org.springframework.web.servlet.resource.VersionResourceResolver},
+ * which only serves it if the hash matches. A changed resource is always
+ * served under a new URL, so a response to such a URL can never change.
+ * Resources requested under their plain names can change at any time, so
+ * they are left on the resource handlers' policy
+ * (<code>spring.resources.cache.cachecontrol.*</code>), which has them
+ * revalidated. This filter replaces that policy for content-versioned
+ * URLs only, as the resource handlers cannot tell the two apart.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings("nls")
+public class ImmutableResourceFilter extends OncePerRequestFilter
+{
+    /** The cache control for a response that can never change: public, for a year, without revalidation. */
+    static final String IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+    /** The version the content strategy adds to a path: an MD5 hash in hex. */
+    private static final Pattern CONTENT_VERSION = Pattern.compile("[0-9a-f]{32}");
+
+    /** Finds the version in a path, as the resource chain's content strategy adds it. */
+    private final VersionStrategy mVersionStrategy = new ContentVersionStrategy();
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+        throws ServletException, IOException
+    {
+        if (!isContentVersioned(request.getRequestURI()))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        chain.doFilter(request, new HttpServletResponseWrapper(response) {
+            @Override
+            public void setHeader(String name, String value)
+            {
+                super.setHeader(name, immutable(name, value));
+            }
+
+            @Override
+            public void addHeader(String name, String value)
+            {
+                super.addHeader(name, immutable(name, value));
+            }
+        });
+    }
+
+    /**
+     * @param path a request path
+     *
+     * @return Whether the path holds the hash of the resource's content.
+     */
+    boolean isContentVersioned(String path)
+    {
+        String version = mVersionStrategy.extractVersion(path.substring(path.lastIndexOf('/') + 1));
+        return (version != null) && CONTENT_VERSION.matcher(version).matches();
+    }
+
+    /**
+     * Replaces the resource handlers' cache control with the policy for
+     * content-versioned resources. The handlers only set it on responses
+     * that carry a resource.
+     *
+     * @param name the header's name
+     * @param value the header's value
+     *
+     * @return The value to use.
+     */
+    private static String immutable(String name, String value)
+    {
+        if (HttpHeaders.CACHE_CONTROL.equalsIgnoreCase(name) && (value != null))
+        {
+            return IMMUTABLE;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.webapp;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import au.com.shawware.finska.controller.ConditionalRequestInterceptor;
+
+/**
+ * Web MVC configuration for the Finska web application.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@Configuration
+@SuppressWarnings("nls")
+public class WebConfiguration implements WebMvcConfigurer
+{
+    /** The interceptor for conditional requests. */
+    private final ConditionalRequestInterceptor mConditionalRequestInterceptor;
+
+    /**
+     * Constructs a new configuration.
+     * 
+     * @param conditionalRequestInterceptor the interceptor for conditional requests
+     */
+    public WebConfiguration(ConditionalRequestInterceptor conditionalRequestInterceptor)
+    {
+        mConditionalRequestInterceptor = conditionalRequestInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry)
+    {
+        registry.addInterceptor(mConditionalRequestInterceptor)
+                .addPathPatterns("/display/**", "/data/**")
+                .excludePathPatterns("/data/cache/**", "/data/stream/**");
+    }
+
+    /**
+     * Marks the static resources requested through content-versioned URLs
+     * as immutable, as they can never change.
+     *
+     * @return The filter's registration.
+     */
+    @Bean
+    public FilterRegistrationBean<ImmutableResourceFilter> immutableResourceFilter()
+    {
+        FilterRegistrationBean<ImmutableResourceFilter> registration = new FilterRegistrationBean<>(new ImmutableResourceFilter());
+        registration.addUrlPatterns("/webjars/*", "/images/*");
+        return registration;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Verifies that journal entries survive being encoded, written to a
+ * journal and read back, as the journal is the persistence format for
+ * updates that have been acknowledged but not yet applied.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "static-method" })
+public class JournalEntryTest
+{
+    /** A long enough delay that no batch is applied in the background during a test. */
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    /** The directory holding the test's journal. */
+    private Path mDirectory;
+
+    /**
+     * Creates a directory for the test's journal.
+     *
+     * @throws IOException error creating the directory
+     */
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        mDirectory = Files.createTempDirectory("finska-journal");
+    }
+
+    /**
+     * Removes the test's journal.
+     *
+     * @throws IOException error removing the journal
+     */
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        try (Stream<Path> paths = Files.list(mDirectory))
+        {
+            for (Path path : (Iterable<Path>)paths::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+        Files.delete(mDirectory);
+    }
+
+    /**
+     * Verifies that every kind of entry decodes to what was encoded.
+     */
+    @Test
+    public void testEncodeDecode()
+    {
+        for (JournalEntry entry : entries())
+        {
+            verifyEqual(entry, JournalEntry.decode(entry.encode()));
+        }
+    }
+
+    /**
+     * Verifies that names holding the field and line separators (and the
+     * escape character) are encoded on a single line and decoded intact.
+     */
+    @Test
+    public void testEscapedNames()
+    {
+        String[] names = { "tab\there", "line\nbreak", "carriage\rreturn", "back\\slash", "\\t", "trailing\\", "\u00C5sa \u00D6berg", "" };
+        for (String name : names)
+        {
+            JournalEntry entry = JournalEntry.createPlayer(name);
+            String encoded = entry.encode();
+            assertEquals(-1, encoded.indexOf('\n'));
+            assertEquals(-1, encoded.indexOf('\r'));
+            JournalEntry decoded = JournalEntry.decode(encoded);
+            assertEquals(encoded, decoded.encode());
+            verifyEqual(entry, decoded);
+        }
+    }
+
+    /**
+     * Verifies that missing and empty player lists are kept distinct.
+     */
+    @Test
+    public void testPlayerLists()
+    {
+        JournalEntry none = JournalEntry.decode(JournalEntry.updateMatch(1, 2, 3, null, false).encode());
+        JournalEntry empty = JournalEntry.decode(JournalEntry.updateMatch(1, 2, 3, new int[0], false).encode());
+        assertEquals("\\N", none.encode().split("\t", -1)[7]);
+        assertEquals("", empty.encode().split("\t", -1)[7]);
+    }
+
+    /**
+     * Verifies that malformed lines are rejected.
+     */
+    @Test
+    public void testInvalidLines()
+    {
+        String valid = JournalEntry.createMatch(1, 2, 3, new int[] { 4 }, true).encode();
+        String[] invalid = {
+            "",
+            valid + "\textra",
+            valid.substring(0, valid.lastIndexOf('\t')),
+            valid.replace("CREATE_MATCH", "DELETE_MATCH"),
+            valid.replace("\t4\t", "\tfour\t"),
+        };
+        for (String line : invalid)
+        {
+            try
+            {
+                JournalEntry.decode(line);
+                fail("Decoded invalid journal entry: " + line);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Verifies that entries appended to a journal that is not applied (as
+     * after a crash) are read back, in order and intact, and applied when
+     * the journal is next opened, and that the journal is then emptied.
+     *
+     * @throws PersistenceException error using the journal
+     * @throws IOException error reading the journal file
+     */
+    @Test
+    public void testReplay()
+        throws PersistenceException, IOException
+    {
+        Path file = mDirectory.resolve("journal.log");
+        List<JournalEntry> entries = entries();
+        // A retained journal that applies nothing leaves every entry in the file.
+        WriteJournal crashed = new WriteJournal(file, NEVER, true, batch -> { /* Nothing is applied */ });
+        assertEquals(0, crashed.open(0));
+        crashed.append(entries.subList(0, 3));
+        for (JournalEntry entry : entries.subList(3, entries.size()))
+        {
+            crashed.append(entry);
+        }
+        crashed.close();
+
+        List<JournalEntry> applied = new ArrayList<>();
+        WriteJournal reopened = new WriteJournal(file, NEVER, false, applied::addAll);
+        assertEquals(entries.size(), reopened.open(0));
+        assertEquals(entries.size(), reopened.getSequence());
+        reopened.flush();
+        assertEquals(entries.size(), applied.size());
+        for (int i = 0; i < entries.size(); i++)
+        {
+            assertEquals(i + 1, applied.get(i).getSequence());
+            verifyEqual(entries.get(i), applied.get(i));
+        }
+        assertEquals(0, Files.size(file));
+        reopened.close();
+    }
+
+    /**
+     * Verifies that only the entries after the given sequence number are
+     * replayed, and that a torn final write is discarded.
+     *
+     * @throws PersistenceException error using the journal
+     * @throws IOException error writing the journal file
+     */
+    @Test
+    public void testPartialReplay()
+        throws PersistenceException, IOException
+    {
+        Path file = mDirectory.resolve("journal.log");
+        List<JournalEntry> entries = entries();
+        WriteJournal crashed = new WriteJournal(file, NEVER, true, batch -> { /* Nothing is applied */ });
+        crashed.open(0);
+        crashed.append(entries);
+        crashed.close();
+        long complete = Files.size(file);
+        Files.write(file, "99\tCREATE_MATCH\t1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<JournalEntry> applied = new ArrayList<>();
+        WriteJournal reopened = new WriteJournal(file, NEVER, true, applied::addAll);
+        assertEquals(entries.size() - 2, reopened.open(2));
+        assertEquals(complete, Files.size(file));
+        reopened.flush();
+        assertEquals(entries.size() - 2, applied.size());
+        for (int i = 0; i < applied.size(); i++)
+        {
+            assertEquals(i + 3, applied.get(i).getSequence());
+            verifyEqual(entries.get(i + 2), applied.get(i));
+        }
+        reopened.close();
+    }
+
+    /**
+     * @return One entry of each kind, with a variety of values.
+     */
+    private static List<JournalEntry> entries()
+    {
+        return Arrays.asList(
+            JournalEntry.createPlayer("Annie"),
+            JournalEntry.updatePlayer(7, "Annie\tB"),
+            JournalEntry.createCompetition("Winter", LocalDate.of(2018, 6, 1), new int[] { 1, 2, 7 }),
+            JournalEntry.updateCompetition(3, "Winter Cup", LocalDate.of(2018, 6, 2), new int[] { 1, 7 }),
+            JournalEntry.createRound(3, LocalDate.of(2018, 6, 9), new int[] { 2, 1, 7 }),
+            JournalEntry.updateRound(3, 4, LocalDate.of(2018, 6, 10), new int[0]),
+            JournalEntry.createMatch(3, 4, 5, new int[] { 7 }, true),
+            JournalEntry.updateMatch(3, 4, 5, new int[] { 1, 2 }, false));
+    }
+
+    /**
+     * Verifies that the given entries hold the same update.
+     *
+     * @param expected the original entry
+     * @param actual the decoded entry
+     */
+    private static void verifyEqual(JournalEntry expected, JournalEntry actual)
+    {
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getOperation(), actual.getOperation());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getRoundNumber(), actual.getRoundNumber());
+        assertEquals(expected.getMatchNumber(), actual.getMatchNumber());
+        // The encoded form holds every field, including the name, date, players and fast win.
+        assertEquals(expected.encode(), actual.encode());
+    }
+}
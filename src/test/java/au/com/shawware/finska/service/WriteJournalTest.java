@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 shawware.com.au
+ *
+ * License: GNU General Public License V3 (or later)
+ * https://www.gnu.org/copyleft/gpl.html
+ */
+
+package au.com.shawware.finska.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.shawware.util.persistence.PersistenceException;
+
+/**
+ * Verifies that journalled updates that cannot be applied are kept.
+ *
+ * @author <a href="mailto:david.shaw@shawware.com.au">David Shaw</a>
+ */
+@SuppressWarnings({ "nls", "static-method" })
+public class WriteJournalTest
+{
+    /** A long enough delay that no batch is applied in the background during a test. */
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    /** The directory holding the test's journal. */
+    private Path mDirectory;
+
+    /**
+     * Creates a directory for the test's journal.
+     *
+     * @throws IOException error creating the directory
+     */
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        mDirectory = Files.createTempDirectory("finska-journal");
+    }
+
+    /**
+     * Removes the test's journal.
+     *
+     * @throws IOException error removing the journal
+     */
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        try (Stream<Path> paths = Files.list(mDirectory))
+        {
+            for (Path path : (Iterable<Path>)paths::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+        Files.delete(mDirectory);
+    }
+
+    /**
+     * Verifies that an update that fails to apply is moved to the
+     * dead-letter file before the journal is emptied, and that it is
+     * still counted after a restart.
+     *
+     * @throws PersistenceException error using the journal
+     * @throws IOException error reading the journal files
+     */
+    @Test
+    public void testFailedUpdatesAreKept()
+        throws PersistenceException, IOException
+    {
+        Path file = mDirectory.resolve("journal.log");
+        JournalEntry applied = JournalEntry.createMatch(1, 2, 3, new int[] { 4 }, false);
+        JournalEntry failed = JournalEntry.updateMatch(1, 2, 1, new int[] { 5 }, true);
+        WriteJournal journal = new WriteJournal(file, NEVER, false, batch -> failed.failed(new PersistenceException("No such match")));
+        journal.open(0);
+        journal.append(applied);
+        journal.append(failed);
+        journal.flush();
+
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(0, Files.size(file));
+        assertEquals(1, journal.getFailedCount());
+        assertEquals(mDirectory.resolve("journal.log.failed"), journal.getFailedFile());
+        List<JournalEntry> kept = WriteJournal.read(journal.getFailedFile());
+        assertEquals(1, kept.size());
+        assertEquals(failed.encode(), kept.get(0).encode());
+        journal.close();
+
+        List<JournalEntry> replayed = new ArrayList<>();
+        WriteJournal reopened = new WriteJournal(file, NEVER, false, replayed::addAll);
+        assertEquals(0, reopened.open(0));
+        assertEquals(1, reopened.getFailedCount());
+        reopened.close();
+        assertEquals(0, replayed.size());
+    }
+
+    /**
+     * Verifies that the journal is not emptied if a failed update cannot
+     * be moved to the dead-letter file, so that it is retried on restart.
+     *
+     * @throws PersistenceException error using the journal
+     * @throws IOException error reading the journal files
+     */
+    @Test
+    public void testUnrecordedFailuresAreRetained()
+        throws PersistenceException, IOException
+    {
+        Path file = mDirectory.resolve("journal.log");
+        JournalEntry failed = JournalEntry.updateMatch(1, 2, 1, new int[] { 5 }, true);
+        WriteJournal journal = new WriteJournal(file, NEVER, false, batch -> failed.failed(new PersistenceException("No such match")));
+        journal.open(0);
+        // A directory in place of the dead-letter file stops it being written.
+        Files.createDirectory(journal.getFailedFile());
+        journal.append(failed);
+        journal.flush();
+        JournalEntry later = JournalEntry.createMatch(1, 2, 3, new int[] { 4 }, false);
+        journal.append(later);
+        journal.flush();
+        journal.close();
+
+        assertFalse(Files.size(file) == 0);
+        List<JournalEntry> retained = WriteJournal.read(file);
+        assertEquals(2, retained.size());
+        assertEquals(failed.encode(), retained.get(0).encode());
+        Files.delete(journal.getFailedFile());
+    }
+}